@@ -1,11 +1,13 @@
 package ast;
 
+import crux.LineTable;
+
 public class AddressOf extends Command implements Expression {
 	
 	private crux.Symbol symbol;
 
-	public AddressOf(int lineNum, int charPos, crux.Symbol sym) {
-		super(lineNum, charPos);
+	public AddressOf(LineTable lines, long span, crux.Symbol sym) {
+		super(Kind.ADDRESS_OF, lines, span);
 		this.symbol = sym;
 	}
 	
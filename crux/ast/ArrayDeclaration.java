@@ -1,14 +1,15 @@
 package ast;
 
+import crux.LineTable;
 import crux.Symbol;
 
 public class ArrayDeclaration extends Command implements Declaration, Statement {
 	
 	private Symbol symbol;
 	
-	public ArrayDeclaration(int lineNum, int charPos, Symbol symbol)
+	public ArrayDeclaration(LineTable lines, long span, Symbol symbol)
 	{
-		super(lineNum, charPos);
+		super(Kind.ARRAY_DECLARATION, lines, span);
 		this.symbol = symbol;
 	}
 
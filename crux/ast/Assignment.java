@@ -1,12 +1,14 @@
 package ast;
 
+import crux.LineTable;
+
 public class Assignment extends Command implements Statement {
 	
 	private Expression dest;
 	private Expression source;
 
-	public Assignment(int lineNum, int charPos, Expression dest, Expression source) {
-		super(lineNum, charPos);
+	public Assignment(LineTable lines, long span, Expression dest, Expression source) {
+		super(Kind.ASSIGNMENT, lines, span);
 		this.dest = dest;
 		this.source = source;
 	}
@@ -21,6 +23,34 @@ public class Assignment extends Command implements Statement {
 		return source;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 2;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) dest;
+		case 1: return (Command) source;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: dest = (Expression) child; break;
+		case 1: source = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
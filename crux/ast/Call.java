@@ -1,5 +1,6 @@
 package ast;
 
+import crux.LineTable;
 import crux.Symbol;
 
 public class Call extends Command implements Statement, Expression {
@@ -7,8 +8,8 @@ public class Call extends Command implements Statement, Expression {
 	private Symbol func;
 	private ExpressionList args;
 
-	public Call(int lineNum, int charPos, Symbol sym, ExpressionList args) {
-		super(lineNum, charPos);
+	public Call(LineTable lines, long span, Symbol sym, ExpressionList args) {
+		super(Kind.CALL, lines, span);
 		this.func = sym;
 		this.args = args;
 	}
@@ -29,6 +30,22 @@ public class Call extends Command implements Statement, Expression {
 		return super.toString() + "[" + func + "]";
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 1;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return args;
+		default: return super.child(index);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
@@ -1,26 +1,144 @@
 package ast;
 
+import crux.LineTable;
 import crux.Token;
 
 public abstract class Command implements Visitable {
 	
-	private int lineNum;
-	private int charPos;
+	// Tag for switch-based dispatch, one per concrete node class
+	public enum Kind
+	{
+		EXPRESSION_LIST,
+		DECLARATION_LIST,
+		STATEMENT_LIST,
+		
+		ADDRESS_OF,
+		LITERAL_BOOL,
+		LITERAL_FLOAT,
+		LITERAL_INT,
+		
+		VARIABLE_DECLARATION,
+		ARRAY_DECLARATION,
+		FUNCTION_DEFINITION,
+		
+		ADDITION,
+		SUBTRACTION,
+		MULTIPLICATION,
+		DIVISION,
+		
+		LOGICAL_AND,
+		LOGICAL_OR,
+		LOGICAL_NOT,
+		
+		COMPARISON,
+		
+		DEREFERENCE,
+		INDEX,
+		ASSIGNMENT,
+		CALL,
+		
+		IF_ELSE_BRANCH,
+		WHILE_LOOP,
+		RETURN,
+		INLINED_CALL,
+		
+		ERROR;
+	}
+	
+	private static final Kind[] KINDS = Kind.values();
+	private static final int OFFSET_BITS = 28;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
 	
-	public Command(int lineNum, int charPos)
+	// kind ordinal, start offset and end offset packed as [8 | 28 | 28] bits
+	private long bits;
+	private final LineTable lines;
+	
+	// span is the node's extent as packed by LineTable.span. Its start is the
+	// node's anchor, the token it is reported at: the operator of a binary
+	// expression, the first token of anything else.
+	protected Command(Kind kind, LineTable lines, long span)
+	{
+		int start = LineTable.start(span);
+		int end = LineTable.end(span);
+		if (start > OFFSET_MASK || end > OFFSET_MASK)
+			throw new IllegalArgumentException("Source offset " + end + " does not fit a node span.");
+		this.bits = ((long)kind.ordinal() << (2 * OFFSET_BITS)) | ((long)start << OFFSET_BITS) | end;
+		this.lines = lines;
+	}
+	
+	public final Kind kind()
 	{
-		this.lineNum = lineNum;
-		this.charPos = charPos;
+		return KINDS[(int)(bits >>> (2 * OFFSET_BITS))];
 	}
 	
 	public int lineNumber()
 	{
-		return lineNum;
+		return lines.line(start());
 	}
 	
 	public int charPosition()
 	{
-		return charPos;
+		return lines.column(start());
+	}
+	
+	public LineTable lineTable()
+	{
+		return lines;
+	}
+	
+	// Offset of the anchor token
+	public int start()
+	{
+		return (int)((bits >>> OFFSET_BITS) & OFFSET_MASK);
+	}
+	
+	// Offset just past the last character of the node
+	public int end()
+	{
+		return (int)(bits & OFFSET_MASK);
+	}
+	
+	public long span()
+	{
+		return LineTable.span(start(), end());
+	}
+	
+	// Moves the end out to cover a child added after construction
+	protected void extendTo(int end)
+	{
+		if (end > end())
+			bits = (bits & ~OFFSET_MASK) | end;
+	}
+	
+	// Offset of the first character of the node. Only a first child can
+	// begin before its parent's anchor, so this follows first children.
+	public int extentStart()
+	{
+		int start = start();
+		Command node = this;
+		while (node.childCount() > 0) {
+			node = node.child(0);
+			start = Math.min(start, node.start());
+		}
+		return start;
+	}
+	
+	// Number of child nodes, as walked by TreeWalker
+	public int childCount()
+	{
+		return 0;
+	}
+	
+	// Child node at position index, in evaluation order
+	public Command child(int index)
+	{
+		throw new IndexOutOfBoundsException(this + " has no child " + index);
+	}
+	
+	// Replaces the child at position index, for passes that rewrite the tree
+	public void setChild(int index, Command child)
+	{
+		throw new IndexOutOfBoundsException(this + " has no child " + index);
 	}
 	
 	@Override
@@ -31,40 +149,41 @@ public abstract class Command implements Visitable {
 
 	public static Expression newExpression(Expression leftSide, Token op, Expression rightSide)
 	{
-		int lineNum = op.lineNumber();
-		int charPos = op.charPosition();
+		LineTable lines = op.lineTable();
+		long span = LineTable.span(op.start(), ((Command)rightSide).end());
 		
 		switch(op.kind())
 		{
-		case ADD: return new Addition(lineNum, charPos, leftSide, rightSide);
-		case SUB: return new Subtraction(lineNum, charPos, leftSide, rightSide);
-		case MUL: return new Multiplication(lineNum, charPos, leftSide, rightSide);
-		case DIV: return new Division(lineNum, charPos, leftSide, rightSide);
+		case ADD: return new Addition(lines, span, leftSide, rightSide);
+		case SUB: return new Subtraction(lines, span, leftSide, rightSide);
+		case MUL: return new Multiplication(lines, span, leftSide, rightSide);
+		case DIV: return new Division(lines, span, leftSide, rightSide);
 		
-		case AND: return new LogicalAnd(lineNum, charPos, leftSide, rightSide);
-		case OR:  return new LogicalOr(lineNum, charPos, leftSide, rightSide);
-		case NOT: return new LogicalNot(lineNum, charPos, leftSide);
+		case AND: return new LogicalAnd(lines, span, leftSide, rightSide);
+		case OR:  return new LogicalOr(lines, span, leftSide, rightSide);
+		case NOT: return new LogicalNot(lines, span, leftSide);
 		
-		case LESS_THAN:     return new Comparison(lineNum, charPos, leftSide, Comparison.Operation.LT, rightSide);
-		case LESSER_EQUAL:  return new Comparison(lineNum, charPos, leftSide, Comparison.Operation.LE, rightSide);
-		case EQUAL:         return new Comparison(lineNum, charPos, leftSide, Comparison.Operation.EQ, rightSide);
-		case NOT_EQUAL:     return new Comparison(lineNum, charPos, leftSide, Comparison.Operation.NE, rightSide);
-		case GREATER_EQUAL: return new Comparison(lineNum, charPos, leftSide, Comparison.Operation.GE, rightSide);
-		case GREATER_THAN:  return new Comparison(lineNum, charPos, leftSide, Comparison.Operation.GT, rightSide);
+		case LESS_THAN:     return new Comparison(lines, span, leftSide, Comparison.Operation.LT, rightSide);
+		case LESSER_EQUAL:  return new Comparison(lines, span, leftSide, Comparison.Operation.LE, rightSide);
+		case EQUAL:         return new Comparison(lines, span, leftSide, Comparison.Operation.EQ, rightSide);
+		case NOT_EQUAL:     return new Comparison(lines, span, leftSide, Comparison.Operation.NE, rightSide);
+		case GREATER_EQUAL: return new Comparison(lines, span, leftSide, Comparison.Operation.GE, rightSide);
+		case GREATER_THAN:  return new Comparison(lines, span, leftSide, Comparison.Operation.GT, rightSide);
 		
-		default: return new Error(op.lineNumber(), op.charPosition(), "Unknown Operation: " + op);
+		default: return new Error(lines, op.span(), "Unknown Operation: " + op);
 		}
 	}
 	
 	public static Expression newLiteral(Token tok)
 	{
+		LineTable lines = tok.lineTable();
 		switch(tok.kind())
 		{
-		case TRUE: return new LiteralBool(tok.lineNumber(), tok.charPosition(), LiteralBool.Value.TRUE);
-		case FALSE: return new LiteralBool(tok.lineNumber(), tok.charPosition(), LiteralBool.Value.FALSE);
-		case INTEGER: return new LiteralInt(tok.lineNumber(), tok.charPosition(), Integer.valueOf(tok.lexeme()));
-		case FLOAT: return new LiteralFloat(tok.lineNumber(), tok.charPosition(), Float.valueOf(tok.lexeme()));
-		default: return new Error(tok.lineNumber(), tok.charPosition(), "Unknown Operation: " + tok);
+		case TRUE: return new LiteralBool(lines, tok.span(), LiteralBool.Value.TRUE);
+		case FALSE: return new LiteralBool(lines, tok.span(), LiteralBool.Value.FALSE);
+		case INTEGER: return new LiteralInt(lines, tok.span(), Integer.valueOf(tok.lexeme()));
+		case FLOAT: return new LiteralFloat(lines, tok.span(), Float.valueOf(tok.lexeme()));
+		default: return new Error(lines, tok.span(), "Unknown Operation: " + tok);
 		}
 	}
 }
@@ -34,6 +34,7 @@ public interface CommandVisitor {
 	public void visit(IfElseBranch node);
 	public void visit(WhileLoop node);
 	public void visit(Return node);
+	public void visit(InlinedCall node);
 	
 	public void visit(Error node);
 }
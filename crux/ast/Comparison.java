@@ -1,5 +1,7 @@
 package ast;
 
+import crux.LineTable;
+
 public class Comparison extends Command implements Expression {
 	
 	private Expression left;
@@ -16,8 +18,8 @@ public class Comparison extends Command implements Expression {
 		LT;
 	}
 
-	public Comparison(int lineNum, int charPos, Expression leftSide, Operation op, Expression rightSide) {
-		super(lineNum, charPos);
+	public Comparison(LineTable lines, long span, Expression leftSide, Operation op, Expression rightSide) {
+		super(Kind.COMPARISON, lines, span);
 		left = leftSide;
 		right = rightSide;
 		this.op = op;
@@ -44,6 +46,34 @@ public class Comparison extends Command implements Expression {
 		return super.toString() + "[" + op + "]";
 	}
 	
+	@Override
+	public int childCount()
+	{
+		return 2;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) left;
+		case 1: return (Command) right;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: left = (Expression) child; break;
+		case 1: right = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
@@ -4,19 +4,34 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import crux.LineTable;
+
 public class DeclarationList extends Command implements Iterable<Declaration> {
 	
 	private List<Declaration> list;
 	
-	public DeclarationList(int lineNum, int charPos)
+	public DeclarationList(LineTable lines, long span)
 	{
-		super(lineNum, charPos);
+		super(Kind.DECLARATION_LIST, lines, span);
 		list = new ArrayList<Declaration>();
 	}
 	
 	public void add(Declaration command)
 	{
 		list.add(command);
+		extendTo(((Command) command).end());
+	}
+
+	@Override
+	public int childCount()
+	{
+		return list.size();
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		return (Command) list.get(index);
 	}
 
 	@Override
@@ -1,12 +1,14 @@
 package ast;
 
+import crux.LineTable;
+
 public class Dereference extends Command implements Expression {
 	
 	private Expression expression;
 	
-	public Dereference(int lineNum, int charPos, Expression expression)
+	public Dereference(LineTable lines, long span, Expression expression)
 	{
-		super(lineNum, charPos);
+		super(Kind.DEREFERENCE, lines, span);
 		this.expression = expression;
 	}
 	
@@ -15,6 +17,32 @@ public class Dereference extends Command implements Expression {
 		return expression;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 1;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) expression;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: expression = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor)
 	{
@@ -0,0 +1,54 @@
+package ast;
+
+// Calls the visit method matching node by switching on its Kind tag.
+// Unlike node.accept(visitor) this does not go through a virtual call on
+// the node class, so a pass that routes its nodes through here keeps one
+// dense switch instead of a megamorphic accept site.
+public final class Dispatch {
+
+	private Dispatch()
+	{
+	}
+
+	public static void visit(Command node, CommandVisitor visitor)
+	{
+		switch (node.kind())
+		{
+		case EXPRESSION_LIST:      visitor.visit((ExpressionList) node); break;
+		case DECLARATION_LIST:     visitor.visit((DeclarationList) node); break;
+		case STATEMENT_LIST:       visitor.visit((StatementList) node); break;
+
+		case ADDRESS_OF:           visitor.visit((AddressOf) node); break;
+		case LITERAL_BOOL:         visitor.visit((LiteralBool) node); break;
+		case LITERAL_FLOAT:        visitor.visit((LiteralFloat) node); break;
+		case LITERAL_INT:          visitor.visit((LiteralInt) node); break;
+
+		case VARIABLE_DECLARATION: visitor.visit((VariableDeclaration) node); break;
+		case ARRAY_DECLARATION:    visitor.visit((ArrayDeclaration) node); break;
+		case FUNCTION_DEFINITION:  visitor.visit((FunctionDefinition) node); break;
+
+		case ADDITION:             visitor.visit((Addition) node); break;
+		case SUBTRACTION:          visitor.visit((Subtraction) node); break;
+		case MULTIPLICATION:       visitor.visit((Multiplication) node); break;
+		case DIVISION:             visitor.visit((Division) node); break;
+
+		case LOGICAL_AND:          visitor.visit((LogicalAnd) node); break;
+		case LOGICAL_OR:           visitor.visit((LogicalOr) node); break;
+		case LOGICAL_NOT:          visitor.visit((LogicalNot) node); break;
+
+		case COMPARISON:           visitor.visit((Comparison) node); break;
+
+		case DEREFERENCE:          visitor.visit((Dereference) node); break;
+		case INDEX:                visitor.visit((Index) node); break;
+		case ASSIGNMENT:           visitor.visit((Assignment) node); break;
+		case CALL:                 visitor.visit((Call) node); break;
+
+		case IF_ELSE_BRANCH:       visitor.visit((IfElseBranch) node); break;
+		case WHILE_LOOP:           visitor.visit((WhileLoop) node); break;
+		case RETURN:               visitor.visit((Return) node); break;
+		case INLINED_CALL:         visitor.visit((InlinedCall) node); break;
+
+		case ERROR:                visitor.visit((Error) node); break;
+		}
+	}
+}
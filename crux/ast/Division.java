@@ -1,11 +1,13 @@
 package ast;
 
+import crux.LineTable;
+
 public class Division extends Command implements Expression {
 	private Expression left;
 	private Expression right;
 	
-	public Division(int lineNum, int charPos, Expression leftSide, Expression rightSide) {
-		super(lineNum, charPos);
+	public Division(LineTable lines, long span, Expression leftSide, Expression rightSide) {
+		super(Kind.DIVISION, lines, span);
 		left = leftSide;
 		right = rightSide;
 	}
@@ -20,6 +22,34 @@ public class Division extends Command implements Expression {
 		return right;
 	}
 	
+	@Override
+	public int childCount()
+	{
+		return 2;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) left;
+		case 1: return (Command) right;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: left = (Expression) child; break;
+		case 1: right = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
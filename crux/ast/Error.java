@@ -1,13 +1,14 @@
 package ast;
 
+import crux.LineTable;
 import crux.Symbol;
 
 public class Error extends Command implements Declaration, Statement, Expression {
 	
 	private String message;
 
-	public Error(int lineNum, int charPos, String message) {
-		super(lineNum, charPos);
+	public Error(LineTable lines, long span, String message) {
+		super(Kind.ERROR, lines, span);
 		this.message = message;
 	}
 	
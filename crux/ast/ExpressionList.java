@@ -4,19 +4,22 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import crux.LineTable;
+
 public class ExpressionList extends Command implements Iterable<Expression> {
 	
 	private List<Expression> list;
 	
-	public ExpressionList(int lineNum, int charPos)
+	public ExpressionList(LineTable lines, long span)
 	{
-		super(lineNum, charPos);
+		super(Kind.EXPRESSION_LIST, lines, span);
 		list = new ArrayList<Expression>();
 	}
 	
 	public void add(Expression command)
 	{
 		list.add(command);
+		extendTo(((Command) command).end());
 	}
 	
 	public int size()
@@ -24,6 +27,24 @@ public class ExpressionList extends Command implements Iterable<Expression> {
 		return list.size();
 	}
 
+	@Override
+	public int childCount()
+	{
+		return list.size();
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		return (Command) list.get(index);
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		list.set(index, (Expression) child);
+	}
+
 	@Override
 	public Iterator<Expression> iterator() {
 		return list.iterator();
@@ -2,6 +2,7 @@ package ast;
 
 import java.util.List;
 
+import crux.LineTable;
 import crux.Symbol;
 
 public class FunctionDefinition extends Command implements Declaration {
@@ -10,9 +11,9 @@ public class FunctionDefinition extends Command implements Declaration {
 	private StatementList body;
 	private List<Symbol> args;
 	
-	public FunctionDefinition(int lineNum, int charPos, Symbol func, List<Symbol> args, StatementList body)
+	public FunctionDefinition(LineTable lines, long span, Symbol func, List<Symbol> args, StatementList body)
 	{
-		super(lineNum, charPos);
+		super(Kind.FUNCTION_DEFINITION, lines, span);
 		this.func = func;
 		this.args = args;
 		this.body = body;
@@ -43,6 +44,22 @@ public class FunctionDefinition extends Command implements Declaration {
 		return super.toString() + "[" + func.toString() + "]";
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 1;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return body;
+		default: return super.child(index);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
@@ -1,13 +1,15 @@
 package ast;
 
+import crux.LineTable;
+
 public class IfElseBranch extends Command implements Statement {
 	
 	private Expression cond;
 	private StatementList thenBlock;
 	private StatementList elseBlock;
 
-	public IfElseBranch(int lineNum, int charPos, Expression cond, StatementList thenBlock, StatementList elseBlock) {
-		super(lineNum, charPos);
+	public IfElseBranch(LineTable lines, long span, Expression cond, StatementList thenBlock, StatementList elseBlock) {
+		super(Kind.IF_ELSE_BRANCH, lines, span);
 		this.cond = cond;
 		this.thenBlock = thenBlock;
 		this.elseBlock = elseBlock;
@@ -28,6 +30,36 @@ public class IfElseBranch extends Command implements Statement {
 		return elseBlock;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 3;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) cond;
+		case 1: return thenBlock;
+		case 2: return elseBlock;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: cond = (Expression) child; break;
+		case 1: thenBlock = (StatementList) child; break;
+		case 2: elseBlock = (StatementList) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
@@ -1,12 +1,14 @@
 package ast;
 
+import crux.LineTable;
+
 public class Index extends Command implements Expression {
 
 	private Expression base;
 	private Expression amount;
 	
-	public Index(int lineNum, int charPos, Expression base, Expression amount) {
-		super(lineNum, charPos);
+	public Index(LineTable lines, long span, Expression base, Expression amount) {
+		super(Kind.INDEX, lines, span);
 		this.base = base;
 		this.amount = amount;
 	}
@@ -21,6 +23,34 @@ public class Index extends Command implements Expression {
 		return amount;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 2;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) base;
+		case 1: return (Command) amount;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: base = (Expression) child; break;
+		case 1: amount = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
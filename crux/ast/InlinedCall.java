@@ -0,0 +1,64 @@
+package ast;
+
+import crux.LineTable;
+import crux.Symbol;
+
+// The body of a function put in place of a call to it. A Return in the
+// body stores its value to the result variable, if there is one, and
+// continues after the InlinedCall instead of leaving the function.
+public class InlinedCall extends Command implements Statement {
+	
+	private Symbol func;
+	private Symbol result;
+	private StatementList body;
+
+	public InlinedCall(LineTable lines, long span, Symbol func, Symbol result, StatementList body) {
+		super(Kind.INLINED_CALL, lines, span);
+		this.func = func;
+		this.result = result;
+		this.body = body;
+	}
+	
+	public Symbol function()
+	{
+		return func;
+	}
+	
+	// The variable the value returned goes to, or null if it is not used
+	public Symbol result()
+	{
+		return result;
+	}
+	
+	public StatementList body()
+	{
+		return body;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return super.toString() + "[" + func + "]";
+	}
+
+	@Override
+	public int childCount()
+	{
+		return 1;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return body;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void accept(CommandVisitor visitor) {
+		visitor.visit(this);
+	}
+}
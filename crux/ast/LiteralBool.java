@@ -1,5 +1,7 @@
 package ast;
 
+import crux.LineTable;
+
 public class LiteralBool extends Command implements Expression {
 	
 	public enum Value
@@ -10,8 +12,8 @@ public class LiteralBool extends Command implements Expression {
 
 	private Value value;
 	
-	public LiteralBool(int lineNum, int charPos, Value value) {
-		super(lineNum, charPos);
+	public LiteralBool(LineTable lines, long span, Value value) {
+		super(Kind.LITERAL_BOOL, lines, span);
 		this.value = value;
 	}
 	
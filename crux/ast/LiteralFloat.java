@@ -1,11 +1,13 @@
 package ast;
 
+import crux.LineTable;
+
 public class LiteralFloat extends Command implements Expression {
 	
 	private Float value;
 
-	public LiteralFloat(int lineNum, int charPos, Float value) {
-		super(lineNum, charPos);
+	public LiteralFloat(LineTable lines, long span, Float value) {
+		super(Kind.LITERAL_FLOAT, lines, span);
 		this.value = value;
 	}
 	
@@ -1,11 +1,13 @@
 package ast;
 
+import crux.LineTable;
+
 public class LiteralInt extends Command implements Expression {
 	
 	private Integer value;
 
-	public LiteralInt(int lineNum, int charPos, Integer value) {
-		super(lineNum, charPos);
+	public LiteralInt(LineTable lines, long span, Integer value) {
+		super(Kind.LITERAL_INT, lines, span);
 		this.value = value;
 	}
 	
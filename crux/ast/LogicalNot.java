@@ -1,10 +1,12 @@
 package ast;
 
+import crux.LineTable;
+
 public class LogicalNot extends Command implements Expression {
 	private Expression expr;
 	
-	public LogicalNot(int lineNum, int charPos, Expression expr) {
-		super(lineNum, charPos);
+	public LogicalNot(LineTable lines, long span, Expression expr) {
+		super(Kind.LOGICAL_NOT, lines, span);
 		this.expr = expr;
 	}
 	
@@ -13,6 +15,32 @@ public class LogicalNot extends Command implements Expression {
 		return expr;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 1;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) expr;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: expr = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
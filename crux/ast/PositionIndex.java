@@ -0,0 +1,217 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Stack;
+
+import crux.LineTable;
+import crux.Symbol;
+
+// Maps source positions to the innermost AST node covering them.
+// The index is built once from a parsed program and answers queries with two
+// binary searches: one over the top-level declarations, one over the flattened
+// segments of the declaration found. Replacing a function only rebuilds that
+// function's segments and shifts the lines of the declarations after it.
+public class PositionIndex {
+
+	private DeclarationList program;
+	private ArrayList<Block> blocks = new ArrayList<Block>();
+
+	// The segments of one top-level declaration. Segment i covers the
+	// positions from keys[i] up to keys[i+1] and belongs to nodes[i];
+	// a null node means the position falls between declarations.
+	// Keys are stored unshifted: actual line = stored line + lineShift.
+	private static class Block
+	{
+		Declaration declaration;
+		int lineShift;
+		long[] keys;
+		Command[] nodes;
+
+		long firstKey()
+		{
+			return keys[0] + ((long)lineShift << 32);
+		}
+	}
+
+	public PositionIndex(DeclarationList program)
+	{
+		this.program = program;
+		for (Declaration d : program)
+			blocks.add(build(d));
+	}
+
+	// Packs a position so that keys order like source positions.
+	private static long key(int line, int column)
+	{
+		return ((long)line << 32) | (column & 0xffffffffL);
+	}
+
+	public Command nodeAt(int line, int column)
+	{
+		long key = key(line, column);
+
+		int lo = 0;
+		int hi = blocks.size() - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (blocks.get(mid).firstKey() <= key) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (found < 0)
+			return program;
+
+		Block block = blocks.get(found);
+		Command node = block.nodes[floor(block.keys, key(line - block.lineShift, column))];
+		return node != null ? node : program;
+	}
+
+	// The symbol named by the innermost node at a position, or null
+	public Symbol symbolAt(int line, int column)
+	{
+		Command node = nodeAt(line, column);
+		switch (node.kind())
+		{
+		case ADDRESS_OF: return ((AddressOf)node).symbol();
+		case CALL: return ((Call)node).function();
+		case VARIABLE_DECLARATION:
+		case ARRAY_DECLARATION:
+		case FUNCTION_DEFINITION: return ((Declaration)node).symbol();
+		default: return null;
+		}
+	}
+
+	// Swaps in fresh, reparsed in place of old. Declarations after it move
+	// by lineDelta lines, the number of lines the edit added (or removed).
+	public void replace(FunctionDefinition old, FunctionDefinition fresh, int lineDelta)
+	{
+		for (int i = 0; i < blocks.size(); i++) {
+			if (blocks.get(i).declaration != old)
+				continue;
+			Block block = build(fresh);
+			block.lineShift = blocks.get(i).lineShift;
+			block.keys = shiftKeys(block.keys, -block.lineShift);
+			blocks.set(i, block);
+			for (int j = i + 1; j < blocks.size(); j++)
+				blocks.get(j).lineShift += lineDelta;
+			return;
+		}
+		throw new IllegalArgumentException(old + " is not indexed.");
+	}
+
+	private static long[] shiftKeys(long[] keys, int lines)
+	{
+		for (int i = 0; i < keys.length; i++)
+			keys[i] += (long)lines << 32;
+		return keys;
+	}
+
+	// Index of the last key <= key, or 0 if there is none
+	private static int floor(long[] keys, long key)
+	{
+		int lo = 0;
+		int hi = keys.length - 1;
+		int found = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid] <= key) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private static class Segment implements Comparable<Segment>
+	{
+		long key;
+		Command node;
+
+		Segment(long key, Command node)
+		{
+			this.key = key;
+			this.node = node;
+		}
+
+		@Override
+		public int compareTo(Segment that)
+		{
+			return Long.compare(key, that.key);
+		}
+	}
+
+	// A node covers its span, widened to the front for the operands that
+	// come before the operator of a binary expression.
+	private static HashMap<Command, long[]> extents(Command root)
+	{
+		final HashMap<Command, long[]> extents = new HashMap<Command, long[]>();
+		new TreeWalker() {
+			@Override
+			protected void post(Command node)
+			{
+				LineTable lines = node.lineTable();
+				long[] extent = {
+					key(lines.line(node.start()), lines.column(node.start())),
+					key(lines.line(node.end()), lines.column(node.end()))
+				};
+				if (node.childCount() > 0)
+					extent[0] = Math.min(extent[0], extents.get(node.child(0))[0]);
+				extents.put(node, extent);
+			}
+		}.walk(root);
+		return extents;
+	}
+
+	private static Block build(Declaration declaration)
+	{
+		final HashMap<Command, long[]> extents = extents((Command)declaration);
+		final List<Segment> segments = new ArrayList<Segment>();
+		final Stack<Command> open = new Stack<Command>();
+
+		new TreeWalker() {
+			@Override
+			protected boolean pre(Command node)
+			{
+				segments.add(new Segment(extents.get(node)[0], node));
+				open.push(node);
+				return true;
+			}
+
+			@Override
+			protected void post(Command node)
+			{
+				open.pop();
+				Command enclosing = open.isEmpty() ? null : open.peek();
+				segments.add(new Segment(extents.get(node)[1], enclosing));
+			}
+		}.walk((Command)declaration);
+
+		// stable, so of several segments starting at one key the last wins
+		Collections.sort(segments);
+		int count = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			if (i + 1 < segments.size() && segments.get(i + 1).key == segments.get(i).key)
+				continue;
+			segments.set(count++, segments.get(i));
+		}
+
+		Block block = new Block();
+		block.declaration = declaration;
+		block.keys = new long[count];
+		block.nodes = new Command[count];
+		for (int i = 0; i < count; i++) {
+			block.keys[i] = segments.get(i).key;
+			block.nodes[i] = segments.get(i).node;
+		}
+		return block;
+	}
+}
@@ -1,11 +1,13 @@
 package ast;
 
+import crux.LineTable;
+
 public class Return extends Command implements Statement {
 	
 	private Expression arg;
 
-	public Return(int lineNum, int charPos, Expression arg) {
-		super(lineNum, charPos);
+	public Return(LineTable lines, long span, Expression arg) {
+		super(Kind.RETURN, lines, span);
 		this.arg = arg;
 	}
 	
@@ -14,6 +16,32 @@ public class Return extends Command implements Statement {
 		return arg;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 1;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) arg;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: arg = (Expression) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
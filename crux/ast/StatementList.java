@@ -4,19 +4,51 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import crux.LineTable;
+
 public class StatementList extends Command implements Iterable<Statement> {
 	
 	private List<Statement> list;
 	
-	public StatementList(int lineNum, int charPos)
+	public StatementList(LineTable lines, long span)
 	{
-		super(lineNum, charPos);
+		super(Kind.STATEMENT_LIST, lines, span);
 		list = new ArrayList<Statement>();
 	}
 	
 	public void add(Statement command)
 	{
 		list.add(command);
+		extendTo(((Command) command).end());
+	}
+	
+	// Inserts command before the statement at index
+	public void add(int index, Statement command)
+	{
+		list.add(index, command);
+	}
+	
+	public void remove(int index)
+	{
+		list.remove(index);
+	}
+
+	@Override
+	public int childCount()
+	{
+		return list.size();
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		return (Command) list.get(index);
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		list.set(index, (Statement) child);
 	}
 
 	@Override
@@ -0,0 +1,62 @@
+package ast;
+
+import java.util.Arrays;
+
+// Walks a tree of Commands depth-first using an explicit work stack instead of
+// recursive accept/visit calls, so the depth of the tree is bounded by the heap
+// rather than by the thread stack.
+public abstract class TreeWalker {
+
+	private static final int INITIAL_DEPTH = 64;
+
+	// Called before the children of node are walked.
+	// Returning false skips the children; post(node) is still called.
+	protected boolean pre(Command node)
+	{
+		return true;
+	}
+
+	// Called after the child at position index of node has been walked.
+	protected void in(Command node, int index)
+	{
+	}
+
+	// Called after all the children of node have been walked.
+	protected void post(Command node)
+	{
+	}
+
+	public void walk(Command root)
+	{
+		Command[] nodes = new Command[INITIAL_DEPTH];
+		int[] cursor = new int[INITIAL_DEPTH];
+		int top = 0;
+
+		nodes[0] = root;
+		cursor[0] = pre(root) ? 0 : -1;
+
+		while (top >= 0) {
+			Command node = nodes[top];
+			int next = cursor[top];
+
+			if (next >= 0 && next < node.childCount()) {
+				cursor[top] = next + 1;
+				Command child = node.child(next);
+
+				top++;
+				if (top == nodes.length) {
+					nodes = Arrays.copyOf(nodes, 2 * top);
+					cursor = Arrays.copyOf(cursor, 2 * top);
+				}
+				nodes[top] = child;
+				cursor[top] = pre(child) ? 0 : -1;
+			} else {
+				post(node);
+				nodes[top] = null;
+				top--;
+				if (top >= 0)
+					in(nodes[top], cursor[top] - 1);
+			}
+		}
+	}
+}
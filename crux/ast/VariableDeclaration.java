@@ -1,13 +1,14 @@
 package ast;
 
+import crux.LineTable;
 import crux.Symbol;
 
 public class VariableDeclaration extends Command implements Declaration, Statement {
 
 	private Symbol sym;
 	
-	public VariableDeclaration(int lineNum, int charPos, Symbol sym) {
-		super(lineNum, charPos);
+	public VariableDeclaration(LineTable lines, long span, Symbol sym) {
+		super(Kind.VARIABLE_DECLARATION, lines, span);
 		this.sym = sym;
 	}
 	
@@ -1,12 +1,14 @@
 package ast;
 
+import crux.LineTable;
+
 public class WhileLoop extends Command implements Statement {
 	
 	private Expression cond;
 	private StatementList body;
 
-	public WhileLoop(int lineNum, int charPos, Expression cond, StatementList body) {
-		super(lineNum, charPos);
+	public WhileLoop(LineTable lines, long span, Expression cond, StatementList body) {
+		super(Kind.WHILE_LOOP, lines, span);
 		this.cond = cond;
 		this.body = body;
 	}
@@ -21,6 +23,34 @@ public class WhileLoop extends Command implements Statement {
 		return body;
 	}
 
+	@Override
+	public int childCount()
+	{
+		return 2;
+	}
+	
+	@Override
+	public Command child(int index)
+	{
+		switch (index)
+		{
+		case 0: return (Command) cond;
+		case 1: return body;
+		default: return super.child(index);
+		}
+	}
+
+	@Override
+	public void setChild(int index, Command child)
+	{
+		switch (index)
+		{
+		case 0: cond = (Expression) child; break;
+		case 1: body = (StatementList) child; break;
+		default: super.setChild(index, child);
+		}
+	}
+
 	@Override
 	public void accept(CommandVisitor visitor) {
 		visitor.visit(this);
@@ -2,7 +2,10 @@ package crux;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class Compiler {
     public static String studentName = "James Nguyen";
@@ -12,6 +15,67 @@ public class Compiler {
     public static void main(String[] args)
     {
         String sourceFilename = args[0];
+        boolean allocateRegisters = false;
+        boolean stackSlots = false;
+        boolean registerArguments = false;
+        boolean tailCalls = false;
+        mips.Peephole peephole = null;
+        boolean peepholeStats = false;
+        int threads = 1;
+        mips.Annotation annotation = mips.Annotation.NODE;
+        boolean sourceMap = false;
+        boolean fold = false;
+        int inlineBudget = 0;
+        int inlineGrowth = types.Inliner.DEFAULT_GROWTH;
+        boolean throughIR = false;
+        boolean dumpIR = false;
+        boolean promote = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--regalloc")) {
+                allocateRegisters = true;
+            } else if (args[i].equals("--stack-slots")) {
+                stackSlots = true;
+            } else if (args[i].equals("--reg-args")) {
+                registerArguments = true;
+            } else if (args[i].equals("--tail-calls")) {
+                tailCalls = true;
+            } else if (args[i].equals("--inline")) {
+                inlineBudget = types.Inliner.DEFAULT_BUDGET;
+            } else if (args[i].startsWith("--inline=")) {
+                inlineBudget = Integer.parseInt(args[i].substring("--inline=".length()));
+            } else if (args[i].startsWith("--inline-growth=")) {
+                inlineGrowth = Integer.parseInt(args[i].substring("--inline-growth=".length()));
+            } else if (args[i].equals("--ir")) {
+                throughIR = true;
+            } else if (args[i].equals("--ir-dump")) {
+                throughIR = true;
+                dumpIR = true;
+            } else if (args[i].equals("--mem2reg")) {
+                throughIR = true;
+                promote = true;
+            } else if (args[i].equals("--fold")) {
+                fold = true;
+            } else if (args[i].equals("--peephole")) {
+                peephole = new mips.Peephole();
+            } else if (args[i].startsWith("--peephole=")) {
+                peephole = new mips.Peephole(Integer.parseInt(args[i].substring("--peephole=".length())));
+            } else if (args[i].equals("--peephole-stats")) {
+                peepholeStats = true;
+            } else if (args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if (args[i].equals("--annotate=none")) {
+                annotation = mips.Annotation.NONE;
+            } else if (args[i].equals("--annotate=statement")) {
+                annotation = mips.Annotation.STATEMENT;
+            } else if (args[i].equals("--annotate=node")) {
+                annotation = mips.Annotation.NODE;
+            } else if (args[i].equals("--source-map")) {
+                sourceMap = true;
+            } else {
+                System.err.println("Unknown option: \"" + args[i] + "\"");
+                System.exit(-1);
+            }
+        }
         
         Scanner s = null;
         try {
@@ -22,7 +86,7 @@ public class Compiler {
             System.exit(-2);
         }
 
-        Parser p = new Parser(s);
+        Parser p = new Parser(s, Writer.nullWriter());
         ast.Command syntaxTree = p.parse();
         if (p.hasError()) {
             System.out.println("Error parsing file " + sourceFilename);
@@ -37,27 +101,90 @@ public class Compiler {
             System.out.println(tc.errorReport());
             System.exit(-4);
         }
+        if (inlineBudget > 0)
+            new types.Inliner(tc, inlineBudget, inlineGrowth).inline(syntaxTree);
+        if (fold)
+            new types.ConstantFolder(tc).fold(syntaxTree);
         
-        mips.CodeGen cg = new mips.CodeGen(tc);
-        cg.generate(syntaxTree);
+        // functions are written out as soon as they are generated
+        String asmFilename = sourceFilename.replace(".crx", ".asm");
+        String mapFilename = asmFilename + ".map";
+        if (throughIR) {
+            generateThroughIR(syntaxTree, sourceFilename, promote, dumpIR, registerArguments, peephole, sourceMap);
+            if (peephole != null && peepholeStats)
+                System.err.print(peephole.report());
+            return;
+        }
+        mips.CodeGen cg = new mips.CodeGen(tc, allocateRegisters, threads);
+        cg.setAnnotation(annotation);
+        cg.setStackSlots(stackSlots);
+        cg.setRegisterArguments(registerArguments);
+        cg.setTailCalls(tailCalls);
+        try (mips.AsmWriter out = new mips.AsmWriter(Paths.get(asmFilename));
+             mips.AsmWriter map = sourceMap ? new mips.AsmWriter(Paths.get(mapFilename)) : null) {
+            cg.getProgram().streamTo(out, peephole);
+            if (map != null)
+                cg.getProgram().mapSourceTo(map, syntaxTree.lineTable());
+            cg.generate(syntaxTree);
+            if (!cg.hasError())
+                cg.getProgram().finish();
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            System.err.println("Error writing assembly file: \"" + asmFilename + "\"");
+            System.exit(-6);
+        }
         if (cg.hasError()) {
+            new File(asmFilename).delete();
+            new File(mapFilename).delete();
             System.out.println("Error generating code for file " + sourceFilename);
             System.out.println(cg.errorReport());
             System.exit(-5);
         }
-        
+        if (peephole != null && peepholeStats)
+            System.err.print(peephole.report());
+    }
+
+    // The code of the program generated from its IR instead of its AST,
+    // which is checked first and, with dumpIR, written next to the source.
+    // With promote, the variables that can be are kept out of memory.
+    private static void generateThroughIR(ast.Command syntaxTree, String sourceFilename, boolean promote,
+            boolean dumpIR, boolean registerArguments, mips.Peephole peephole, boolean sourceMap)
+    {
+        ir.Unit unit = new ir.Builder().build(syntaxTree);
+        if (promote)
+            new ir.Promoter().promote(unit);
+        if (dumpIR) {
+            String irFilename = sourceFilename.replace(".crx", ".ir");
+            try (Writer out = Files.newBufferedWriter(Paths.get(irFilename))) {
+                out.write(ir.Printer.print(unit));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Error writing IR file: \"" + irFilename + "\"");
+                System.exit(-6);
+            }
+        }
+        ir.Verifier verifier = new ir.Verifier();
+        if (!verifier.verify(unit)) {
+            System.out.println("Error generating code for file " + sourceFilename);
+            System.out.println(verifier.errorReport());
+            System.exit(-5);
+        }
+
         String asmFilename = sourceFilename.replace(".crx", ".asm");
-        try {
-            mips.Program prog = cg.getProgram();
-            File asmFile = new File(asmFilename);
-            PrintStream ps = new PrintStream(asmFile);
-            prog.print(ps);
-            ps.close();
-        } catch (IOException e) {
+        String mapFilename = asmFilename + ".map";
+        mips.Lowering lowering = new mips.Lowering();
+        lowering.setRegisterArguments(registerArguments);
+        try (mips.AsmWriter out = new mips.AsmWriter(Paths.get(asmFilename));
+             mips.AsmWriter map = sourceMap ? new mips.AsmWriter(Paths.get(mapFilename)) : null) {
+            lowering.getProgram().streamTo(out, peephole);
+            if (map != null)
+                lowering.getProgram().mapSourceTo(map, syntaxTree.lineTable());
+            lowering.generate(unit);
+            lowering.getProgram().finish();
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
             System.err.println("Error writing assembly file: \"" + asmFilename + "\"");
             System.exit(-6);
         }
     }
 }
-    
@@ -0,0 +1,29 @@
+package crux;
+
+import java.io.IOException;
+
+// Indentation for the tree dumps, two spaces per level.
+// Prefixes are sliced out of one shared run of spaces, so writing a line
+// never builds a new indentation String.
+public final class Indentation {
+
+	private static volatile String spaces = "                                ";
+
+	private Indentation()
+	{
+	}
+
+	public static void append(Appendable out, int depth) throws IOException
+	{
+		int width = 2 * depth;
+		String s = spaces;
+		if (width > s.length()) {
+			StringBuilder sb = new StringBuilder(Math.max(width, 2 * s.length()));
+			while (sb.length() < sb.capacity())
+				sb.append(' ');
+			s = sb.toString();
+			spaces = s;
+		}
+		out.append(s, 0, width);
+	}
+}
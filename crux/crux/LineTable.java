@@ -0,0 +1,70 @@
+package crux;
+
+import java.util.Arrays;
+
+// Offsets of the line starts of one source file, filled in by the Scanner.
+// Tokens and AST nodes only keep character offsets into the file and use
+// the table of their file to turn them into line and column numbers on demand.
+public final class LineTable {
+
+	private int[] starts = new int[64];
+	private int count;
+
+	public LineTable()
+	{
+		starts[0] = 0;
+		count = 1;
+	}
+
+	// A span packs the start offset and the end offset (one past the last
+	// character) of a piece of the file into a single long.
+	public static long span(int start, int end)
+	{
+		return ((long)start << 32) | (end & 0xffffffffL);
+	}
+	
+	public static int start(long span)
+	{
+		return (int)(span >>> 32);
+	}
+	
+	public static int end(long span)
+	{
+		return (int)span;
+	}
+	
+	// Records that a new line begins at offset
+	public void addLine(int offset)
+	{
+		if (count == starts.length)
+			starts = Arrays.copyOf(starts, 2 * count);
+		starts[count++] = offset;
+	}
+
+	// Line number of offset, counting from 1
+	public int line(int offset)
+	{
+		int lo = 0;
+		int hi = count - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (starts[mid] <= offset)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo + 1;
+	}
+
+	// Column of offset within its line, counting from 1
+	public int column(int offset)
+	{
+		return offset - starts[line(offset) - 1] + 1;
+	}
+
+	// Offset of a line and column pair, the inverse of line and column
+	public int offset(int line, int column)
+	{
+		return starts[Math.min(line, count) - 1] + column - 1;
+	}
+}
@@ -1,5 +1,7 @@
 package crux;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
@@ -13,17 +15,15 @@ public class Parser {
     
 // Grammar Rule Reporting ==========================================
     private int parseTreeRecursionDepth = 0;
-    private StringBuffer parseTreeBuffer = new StringBuffer();
+    private Appendable parseTreeOut;
 
     public void enterRule(NonTerminal nonTerminal) {
-        String lineData = new String();
-        for(int i = 0; i < parseTreeRecursionDepth; i++)
-        {
-            lineData += "  ";
+        try {
+            Indentation.append(parseTreeOut, parseTreeRecursionDepth);
+            parseTreeOut.append(nonTerminal.name()).append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        lineData += nonTerminal.name();
-        //System.out.println("descending " + lineData);
-        parseTreeBuffer.append(lineData + "\n");
         parseTreeRecursionDepth++;
     }
     
@@ -32,9 +32,10 @@ public class Parser {
         parseTreeRecursionDepth--;
     }
     
+    // The report so far, when collecting into the default buffer
     public String parseTreeReport()
     {
-        return parseTreeBuffer.toString();
+        return parseTreeOut.toString();
     }
 
 // Error Reporting ==========================================
@@ -82,6 +83,18 @@ public class Parser {
         return currentToken.charPosition();
     }
     
+    // Span from start to the end of the last token consumed
+    private long spanFrom(int start)
+    {
+        return LineTable.span(start, Math.max(start, previousEnd));
+    }
+    
+    // Empty span at the current token, for lists that grow as they are filled
+    private long emptySpan()
+    {
+        return LineTable.span(currentToken.start(), currentToken.start());
+    }
+    
 // SymbolTable Management ==========================
     private SymbolTable symbolTable;
     
@@ -168,11 +181,21 @@ public class Parser {
         
 // Parser ==========================================
     private Scanner scanner;
+    private LineTable lines;
     private Token currentToken;
+    private int previousEnd;
     
     public Parser(Scanner scanner)
     {
+        this(scanner, new StringBuffer());
+    }
+    
+    // Streams the parse tree report to parseTreeOut while parsing
+    public Parser(Scanner scanner, Appendable parseTreeOut)
+    {
+        this.parseTreeOut = parseTreeOut;
         this.scanner = scanner;
+        this.lines = scanner.lineTable();
         this.currentToken = scanner.next();
     }
     
@@ -182,7 +205,7 @@ public class Parser {
         try {
             return program();
         } catch (QuitParseException q) {
-            return new ast.Error(lineNumber(), charPosition(), "Could not complete parsing.");
+            return new ast.Error(lines, currentToken.span(), "Could not complete parsing.");
         }
     }
     
@@ -217,6 +240,7 @@ public class Parser {
     private boolean accept(Token.Kind kind)
     {
         if (have(kind)) {
+            previousEnd = currentToken.end();
             currentToken = scanner.next();
             return true;
         }
@@ -226,6 +250,7 @@ public class Parser {
     private boolean accept(NonTerminal nt)
     {
         if (have(nt)) {
+            previousEnd = currentToken.end();
             currentToken = scanner.next();
             return true;
         }
@@ -312,8 +337,9 @@ public class Parser {
             
         } else {
             String message = reportSyntaxError(NonTerminal.LITERAL);
-            expr = new ast.Error(lineNumber(), charPosition(), message);
+            expr = new ast.Error(lines, currentToken.span(), message);
         }
+        exitRule(NonTerminal.LITERAL);
         return expr;
     }
     
@@ -321,14 +347,15 @@ public class Parser {
     public ast.Expression designator()
     {
         enterRule(NonTerminal.DESIGNATOR);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        Token ident = currentToken;
         Symbol sym = tryResolveSymbol(expectIdentifier());
         
-        ast.Expression expr = new ast.AddressOf(lineNum, charPos, sym);
+        ast.Expression expr = new ast.AddressOf(lines, ident.span(), sym);
         while (accept(Token.Kind.OPEN_BRACKET)) {
-            expr = new ast.Index(lineNumber(), charPosition(), expr, expression0());
+            int start = currentToken.start();
+            ast.Expression amount = expression0();
             expect(Token.Kind.CLOSE_BRACKET);
+            expr = new ast.Index(lines, spanFrom(start), expr, amount);
         }
         
         exitRule(NonTerminal.DESIGNATOR);
@@ -426,22 +453,22 @@ public class Parser {
         
         if (have(Token.Kind.NOT)) {
             Token tok = expectRetrieve(Token.Kind.NOT);
-            expr = new ast.LogicalNot(tok.lineNumber(), tok.charPosition(), expression3());
+            ast.Expression operand = expression3();
+            expr = new ast.LogicalNot(lines, spanFrom(tok.start()), operand);
         } else if (accept(Token.Kind.OPEN_PAREN)) {
             expr = expression0();
             expect(Token.Kind.CLOSE_PAREN);
         } else if (have(NonTerminal.DESIGNATOR)) {
-            int lineNum = currentToken.lineNumber();
-            int charPos = currentToken.charPosition();
+            int start = currentToken.start();
             expr = designator();
-            expr = new ast.Dereference(lineNum, charPos, expr);
+            expr = new ast.Dereference(lines, spanFrom(start), expr);
         } else if (have(NonTerminal.CALL_EXPRESSION)) {
             expr = call_expression();
         } else if (have(NonTerminal.LITERAL)) {
             expr = literal();
         } else {
             String message = reportSyntaxError(NonTerminal.EXPRESSION3);
-            expr = new ast.Error(lineNumber(), charPosition(), message);
+            expr = new ast.Error(lines, currentToken.span(), message);
         }
         exitRule(NonTerminal.EXPRESSION3);
         return expr;
@@ -451,8 +478,7 @@ public class Parser {
     public ast.Call call_expression()
     {
         enterRule(NonTerminal.CALL_EXPRESSION);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.CALL);
         Symbol func = tryResolveSymbol(expectIdentifier());
@@ -461,16 +487,16 @@ public class Parser {
         expect(Token.Kind.CLOSE_PAREN);
         
         exitRule(NonTerminal.CALL_EXPRESSION);
-        return new ast.Call(lineNum, charPos, func, args);
+        return new ast.Call(lines, spanFrom(start), func, args);
     }
     
     // expression-list := [ expression0 { "," expression0 } ] .
     public ast.ExpressionList expression_list()
     {
         enterRule(NonTerminal.EXPRESSION_LIST);
-        ast.ExpressionList exprs = new ast.ExpressionList(lineNumber(), charPosition()); 
+        ast.ExpressionList exprs = new ast.ExpressionList(lines, emptySpan()); 
         
-        if (have(NonTerminal.EXPRESSION0)) {
+        if (have(NonTerminal.EXPRESSION0)) {
             exprs.add(expression0());
             while (accept(Token.Kind.COMMA)) {
                 exprs.add(expression0());
@@ -510,8 +536,7 @@ public class Parser {
     public ast.VariableDeclaration variable_declaration()
     {
         enterRule(NonTerminal.VARIABLE_DECLARATION);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.VAR);
         Symbol sym = tryDeclareSymbol(expectIdentifier());
@@ -520,44 +545,42 @@ public class Parser {
         expect(Token.Kind.SEMICOLON);
         exitRule(NonTerminal.VARIABLE_DECLARATION);
         
-        return new ast.VariableDeclaration(lineNum, charPos, sym);
+        return new ast.VariableDeclaration(lines, spanFrom(start), sym);
     }
     
     // array-declaration := "array" IDENTIFIER ":" type "[" INTEGER "]" { "[" INTEGER "]" } ";" .
     public ast.ArrayDeclaration array_declaration()
     {
         enterRule(NonTerminal.ARRAY_DECLARATION);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.ARRAY);
         Symbol sym = tryDeclareSymbol(expectIdentifier());
         expect(Token.Kind.COLON);
         sym.setType(type());
-        expect(Token.Kind.OPEN_BRACKET);
-        Stack<Integer> indexes = new Stack<Integer>();
+        expect(Token.Kind.OPEN_BRACKET);
+        Stack<Integer> indexes = new Stack<Integer>();
         indexes.push(expectInteger());
         expect(Token.Kind.CLOSE_BRACKET);
-        while (accept(Token.Kind.OPEN_BRACKET)) {
+        while (accept(Token.Kind.OPEN_BRACKET)) {
             indexes.push(expectInteger());
             expect(Token.Kind.CLOSE_BRACKET);
         }
-        expect(Token.Kind.SEMICOLON);
+        expect(Token.Kind.SEMICOLON);
         
-        // arrays require reversing the description
+        // arrays require reversing the description
         while (!indexes.empty())
             sym.setType(new ArrayType(indexes.pop(), sym.type()));
         
         exitRule(NonTerminal.ARRAY_DECLARATION);
-        return new ast.ArrayDeclaration(lineNum, charPos, sym);
+        return new ast.ArrayDeclaration(lines, spanFrom(start), sym);
     }
     
     // function-definition := "func" IDENTIFIER "(" parameter-list ")" ":" type statement-block .
     public ast.FunctionDefinition function_definition()
     {
         enterRule(NonTerminal.FUNCTION_DECLARATION);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.FUNC);
         Symbol sym = tryDeclareSymbol(expectIdentifier());
@@ -578,7 +601,7 @@ public class Parser {
         exitScope();
         
         exitRule(NonTerminal.FUNCTION_DECLARATION);
-        return new ast.FunctionDefinition(lineNum, charPos, sym, params, body);
+        return new ast.FunctionDefinition(lines, spanFrom(start), sym, params, body);
     }
 
     // declaration := variable-declaration | array-declaration | function-definition .
@@ -595,7 +618,7 @@ public class Parser {
             dec = function_definition();
         } else {
             String message = reportSyntaxError(NonTerminal.DECLARATION);
-            dec = new ast.Error(lineNumber(), charPosition(), message);
+            dec = new ast.Error(lines, currentToken.span(), message);
         }
         
         exitRule(NonTerminal.DECLARATION);
@@ -603,9 +626,9 @@ public class Parser {
     }
 
     // declaration-list := { declaration } .
-    public ast.DeclarationList declaration_list() {
+    public ast.DeclarationList declaration_list() {
         enterRule(NonTerminal.DECLARATION_LIST);
-        ast.DeclarationList decList = new ast.DeclarationList(lineNumber(), charPosition());
+        ast.DeclarationList decList = new ast.DeclarationList(lines, emptySpan());
         
         while (have(NonTerminal.DECLARATION)) {
             decList.add(declaration());
@@ -625,7 +648,7 @@ public class Parser {
         ast.Expression source = expression0();
         expect(Token.Kind.SEMICOLON);
         exitRule(NonTerminal.ASSIGNMENT_STATEMENT);
-        return new ast.Assignment(let.lineNumber(), let.charPosition(), dest, source);
+        return new ast.Assignment(lines, spanFrom(let.start()), dest, source);
     }
         
     // call-statement := call-expression ";"
@@ -642,8 +665,7 @@ public class Parser {
     public ast.IfElseBranch if_statement()
     {
         enterRule(NonTerminal.IF_STATEMENT);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.IF);
         ast.Expression cond = expression0();
@@ -651,7 +673,7 @@ public class Parser {
         ast.StatementList thenBlock = statement_block();
         exitScope();
         
-        ast.StatementList elseBlock = new ast.StatementList(lineNumber(), charPosition());
+        ast.StatementList elseBlock = new ast.StatementList(lines, emptySpan());
         if (accept(Token.Kind.ELSE)) {
             enterScope();
             elseBlock = statement_block();
@@ -659,15 +681,14 @@ public class Parser {
         }
         
         exitRule(NonTerminal.IF_STATEMENT);
-        return new ast.IfElseBranch(lineNum, charPos, cond, thenBlock, elseBlock);
+        return new ast.IfElseBranch(lines, spanFrom(start), cond, thenBlock, elseBlock);
     }
     
     // while-statement := "while" expression0 statement-block .
     public ast.WhileLoop while_statement()
     {
         enterRule(NonTerminal.WHILE_STATEMENT);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.WHILE);
         ast.Expression cond = expression0();
@@ -676,22 +697,21 @@ public class Parser {
         exitScope();
         
         exitRule(NonTerminal.WHILE_STATEMENT);
-        return new ast.WhileLoop(lineNum, charPos, cond, body);
+        return new ast.WhileLoop(lines, spanFrom(start), cond, body);
     }
     
     // return-statement := "return" expression0 ";" .
     public ast.Return return_statement()
     {
         enterRule(NonTerminal.RETURN_STATEMENT);
-        int lineNum = lineNumber();
-        int charPos = charPosition();
+        int start = currentToken.start();
         
         expect(Token.Kind.RETURN);
         ast.Expression expr = expression0();
         expect(Token.Kind.SEMICOLON);
         
         exitRule(NonTerminal.RETURN_STATEMENT);
-        return new ast.Return(lineNum, charPos, expr);
+        return new ast.Return(lines, spanFrom(start), expr);
     }
     
     // statement := variable-declaration
@@ -721,7 +741,7 @@ public class Parser {
             stmt = return_statement();
         } else {
             String message = reportSyntaxError(NonTerminal.STATEMENT);
-            stmt = new ast.Error(lineNumber(), charPosition(), message);
+            stmt = new ast.Error(lines, currentToken.span(), message);
         }
             
         exitRule(NonTerminal.STATEMENT);
@@ -732,7 +752,7 @@ public class Parser {
     public ast.StatementList statement_list()
     {
         enterRule(NonTerminal.STATEMENT_LIST);
-        ast.StatementList block = new ast.StatementList(lineNumber(), charPosition()); 
+        ast.StatementList block = new ast.StatementList(lines, emptySpan()); 
         
         while (have(NonTerminal.STATEMENT)) {
             block.add(statement());
@@ -746,7 +766,7 @@ public class Parser {
     public ast.StatementList statement_block()
     {
         enterRule(NonTerminal.STATEMENT_BLOCK);
-        ast.StatementList block = new ast.StatementList(lineNumber(), charPosition()); 
+        ast.StatementList block = new ast.StatementList(lines, currentToken.span()); 
         
         expect(Token.Kind.OPEN_BRACE);
         while (have(NonTerminal.STATEMENT)) {
@@ -8,18 +8,24 @@ public class Scanner implements Iterable<Token> {
 	public static String studentID = "TODO: Your 8-digit id";
 	public static String uciNetID = "TODO: uci-net id";
 	
-	private int lineNum;  // current line count
-	private int charPos;  // character offset for current line
+	private int offset;   // character offset of nextChar in the file
 	private int nextChar; // contains the next char (-1 == EOF)
 	private Reader input;
+	private LineTable lines;
 	
 	public Scanner(Reader reader)
 	{
-		lineNum = 1;
-		charPos = 0;
+		offset = -1;
 		input = reader;
+		lines = new LineTable();
 		nextChar = readChar();
 	}
+	
+	// Line starts of the input, filled in as far as it has been scanned
+	public LineTable lineTable()
+	{
+		return lines;
+	}
 
 	public Token next()
 	{
@@ -33,7 +39,7 @@ public class Scanner implements Iterable<Token> {
 		int c = -1;
 		try {
 			c = input.read();
-			charPos++;
+			offset++;
 		} catch (IOException e) {
 			//e.printStackTrace();
 		}
@@ -43,7 +49,7 @@ public class Scanner implements Iterable<Token> {
 				input.close();
 			} catch (IOException e) {
 			}
-		}
+		}
 		
 		return c;
 	}
@@ -59,17 +65,15 @@ public class Scanner implements Iterable<Token> {
 	private Token nextImpl()
 	{
 		while (Character.isWhitespace(nextChar)) {
-			if ('\n' == nextChar) {
-				lineNum++;
-				charPos = 0;
-			}
+			if ('\n' == nextChar)
+				lines.addLine(offset + 1);
 			nextChar = readChar();
 		}
 		
 		if (atEOF())
-			return Token.EOF(lineNum, charPos);
+			return Token.EOF(lines, offset);
 		
-		int pos = charPos;
+		int start = offset;
 		
 		if (nextChar == '/') {
 			nextChar = readChar();
@@ -77,52 +81,52 @@ public class Scanner implements Iterable<Token> {
 				while ((nextChar = readChar()) != '\n') {}
 				return next();
 			}
-			return new Token("/", lineNum, pos);
+			return new Token("/", lines, start, offset);
 		}
 		
 		else if (nextChar == '=') {
 			nextChar = readChar();
 			if (nextChar == '=') {
 				nextChar = readChar();
-				return new Token("==", lineNum, pos);
+				return new Token("==", lines, start, offset);
 			}
-			return new Token("=", lineNum, pos);
+			return new Token("=", lines, start, offset);
 		}
 		
 		else if (nextChar == '<') {
 			nextChar = readChar();
 			if (nextChar == '=') {
 				nextChar = readChar();
-				return new Token("<=", lineNum, pos);
+				return new Token("<=", lines, start, offset);
 			}
-			return new Token("<", lineNum, pos);
+			return new Token("<", lines, start, offset);
 		}
 		
 		else if (nextChar == '>') {
 			nextChar = readChar();
 			if (nextChar == '=') {
 				nextChar = readChar();
-				return new Token(">=", lineNum, pos);
+				return new Token(">=", lines, start, offset);
 			}
-			return new Token(">", lineNum, pos);
+			return new Token(">", lines, start, offset);
 		}
 		
 		else if (nextChar == ':') {
 			nextChar = readChar();
 			if (nextChar == ':') {
 				nextChar = readChar();
-				return new Token("::", lineNum, pos);
+				return new Token("::", lines, start, offset);
 			}
-			return new Token(":", lineNum, pos);
+			return new Token(":", lines, start, offset);
 		}
 		
 		else if (nextChar == '!') {
 			nextChar = readChar();
 			if (nextChar == '=') {
 				nextChar = readChar();
-				return new Token("!=", lineNum, pos);
+				return new Token("!=", lines, start, offset);
 			}
-			return Token.Error("Unexpected character: "+nextChar, lineNum, pos);
+			return Token.Error("Unexpected character: "+nextChar, lines, start, offset);
 		}
 			
 		else if (Character.isDigit(nextChar))
@@ -141,10 +145,10 @@ public class Scanner implements Iterable<Token> {
 					num += (char)nextChar;
 					nextChar = readChar();
 				}
-				return Token.Float(num, lineNum, pos);
+				return Token.Float(num, lines, start, offset);
 			}
 			
-			return Token.Integer(num, lineNum, pos);
+			return Token.Integer(num, lines, start, offset);
 		}
 		
 		else if (Character.isLetter(nextChar) || nextChar == '_') {
@@ -157,10 +161,10 @@ public class Scanner implements Iterable<Token> {
 			
 			for (Token.Kind t : Token.Kind.values()) {
 				if (t.matches(ident))
-					return new Token(ident, lineNum, pos);
+					return new Token(ident, lines, start, offset);
 			}
 			
-			return Token.Identifier(ident, lineNum, pos);
+			return Token.Identifier(ident, lines, start, offset);
 		}
 		
 		else {
@@ -169,12 +173,12 @@ public class Scanner implements Iterable<Token> {
 			for (Token.Kind t : Token.Kind.values()) {
 				if (t.matches(nextChar)) {
 					nextChar = readChar();
-					return new Token(c, lineNum, pos);
+					return new Token(c, lines, start, offset);
 				}
 			}
 			
 			nextChar = readChar();
-			return Token.Error("Unexpected character: "+c, lineNum, pos);
+			return Token.Error("Unexpected character: "+c, lines, start, offset);
 		}
 	}
 
@@ -67,7 +67,7 @@ public class Token {
 		{
 			return default_lexeme.length() == 1
                 && default_lexeme.charAt(0) == c;
-		}
+		}
 		
 		public boolean matches(String lexeme)
 		{
@@ -80,64 +80,64 @@ public class Token {
 		}
 	}
 	
-	private int lineNum;
-	private int charPos;
+	private LineTable lines;
+	private long span;
 	Kind kind;
 	private String lexeme = "";
 
-	public static Token Error(String description, int linePos, int charPos)
+	public static Token Error(String description, LineTable lines, int start, int end)
 	{
-		Token tok = new Token(linePos, charPos);
-		tok.kind = Kind.ERROR;
+		Token tok = new Token(lines, start, end);
+		tok.kind = Kind.ERROR;
 		tok.lexeme = description;
 		return tok;
 	}
 	
-	public static Token EOF(int linePos, int charPos)
+	public static Token EOF(LineTable lines, int offset)
 	{
-		Token tok = new Token(linePos, charPos);
+		Token tok = new Token(lines, offset, offset);
 		tok.kind = Kind.EOF;
 		return tok;
 	}
 	
-	public static Token Identifier(String name, int linePos, int charPos)
+	public static Token Identifier(String name, LineTable lines, int start, int end)
 	{
-		Token tok = new Token(linePos, charPos);
-		tok.kind = Kind.IDENTIFIER;
+		Token tok = new Token(lines, start, end);
+		tok.kind = Kind.IDENTIFIER;
 		tok.lexeme = name;
 		return tok;
 	}
 	
-	public static Token Integer(String value, int linePos, int charPos)
+	public static Token Integer(String value, LineTable lines, int start, int end)
 	{
-		Token tok = new Token(linePos, charPos);
-		tok.kind = Kind.INTEGER;
+		Token tok = new Token(lines, start, end);
+		tok.kind = Kind.INTEGER;
 		tok.lexeme = value;
 		return tok;
 	}
 		
-	public static Token Float(String value, int linePos, int charPos)
+	public static Token Float(String value, LineTable lines, int start, int end)
 	{
-		Token tok = new Token(linePos, charPos);
-		tok.kind = Kind.FLOAT;
+		Token tok = new Token(lines, start, end);
+		tok.kind = Kind.FLOAT;
 		tok.lexeme = value;
 		return tok;
 	}
 	
-	private Token(int lineNum, int charPos)
+	private Token(LineTable lines, int start, int end)
 	{
-		this.lineNum = lineNum;
-		this.charPos = charPos;
+		this.lines = lines;
+		this.span = LineTable.span(start, end);
 		
 		// if we don't match anything, signal error
 		this.kind = Kind.ERROR;
 		this.lexeme = "No Lexeme Given";
 	}
 	
-	public Token(String lexeme, int lineNum, int charPos)
+	public Token(String lexeme, LineTable lines, int start, int end)
 	{
-		this.lineNum = lineNum;
-		this.charPos = charPos;
+		this.lines = lines;
+		this.span = LineTable.span(start, end);
 		
 		for (Kind tok: Token.Kind.values()) {
 			if (tok.matches(lexeme)) {
@@ -153,12 +153,34 @@ public class Token {
 	
 	public int lineNumber()
 	{
-		return lineNum;
+		return lines.line(start());
 	}
 	
 	public int charPosition()
 	{
-		return charPos;
+		return lines.column(start());
+	}
+	
+	public LineTable lineTable()
+	{
+		return lines;
+	}
+	
+	// Offset of the first character of the token
+	public int start()
+	{
+		return LineTable.start(span);
+	}
+	
+	// Offset just past the last character of the token
+	public int end()
+	{
+		return LineTable.end(span);
+	}
+	
+	public long span()
+	{
+		return span;
 	}
 	
 	public String lexeme()
@@ -174,9 +196,9 @@ public class Token {
 			str += "(" + lexeme() + ")";
 		
 		str += "(";
-		str += "lineNum:" + lineNum;
+		str += "lineNum:" + lineNumber();
 		str += ", ";
-		str += "charPos:" + charPos;
+		str += "charPos:" + charPosition();
 		str += ")";
 		
 		return str;
@@ -220,8 +242,8 @@ public class Token {
 			
 		return this.kind == tok.kind
 		    && this.lexeme().equals(tok.lexeme())
-		    && this.lineNum == tok.lineNum
-		    && this.charPos == tok.charPos;
+		    && this.lineNumber() == tok.lineNumber()
+		    && this.charPosition() == tok.charPosition();
 	}
 	
 	public Kind kind()
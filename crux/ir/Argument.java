@@ -0,0 +1,34 @@
+package ir;
+
+import crux.Symbol;
+
+// The value a parameter has on entry to its function
+public class Argument extends Value {
+
+    private final Symbol parameter;
+    private final int index;
+
+    Argument(Symbol parameter, int index)
+    {
+        super(parameter.type());
+        this.parameter = parameter;
+        this.index = index;
+    }
+
+    public Symbol parameter()
+    {
+        return parameter;
+    }
+
+    // The position of the parameter among those of the function
+    public int index()
+    {
+        return index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "%" + parameter.name();
+    }
+}
@@ -0,0 +1,99 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A straight line of instructions that only the first is entered at and
+// that ends with a terminator. The phis come first.
+public class BasicBlock {
+
+    private ArrayList<Instruction> instructions = new ArrayList<>();
+    private ArrayList<BasicBlock> predecessors = new ArrayList<>();
+    private Function function;
+
+    BasicBlock(Function function)
+    {
+        this.function = function;
+    }
+
+    public Function function()
+    {
+        return function;
+    }
+
+    public List<Instruction> instructions()
+    {
+        return instructions;
+    }
+
+    // A block that branches here with both targets is in here twice
+    public List<BasicBlock> predecessors()
+    {
+        return predecessors;
+    }
+
+    public List<BasicBlock> successors()
+    {
+        ArrayList<BasicBlock> successors = new ArrayList<>();
+        Instruction last = terminator();
+        if (last != null)
+            for (int i = 0; i < last.targetCount(); i++)
+                successors.add(last.target(i));
+        return successors;
+    }
+
+    // The last instruction, if it is a terminator
+    public Instruction terminator()
+    {
+        if (instructions.isEmpty())
+            return null;
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.isTerminator() ? last : null;
+    }
+
+    public List<Instruction> phis()
+    {
+        int count = 0;
+        while (count < instructions.size() && instructions.get(count).op() == Instruction.Op.PHI)
+            count++;
+        return instructions.subList(0, count);
+    }
+
+    // Adds instr at the end, and for a terminator the edges to its targets
+    public Instruction append(Instruction instr)
+    {
+        instructions.add(instr);
+        instr.setBlock(this);
+        for (int i = 0; i < instr.targetCount(); i++)
+            instr.target(i).predecessors.add(this);
+        return instr;
+    }
+
+    // Adds a phi after the ones already there, its operands are up to the
+    // caller
+    public Instruction addPhi(Instruction phi)
+    {
+        instructions.add(phis().size(), phi);
+        phi.setBlock(this);
+        return phi;
+    }
+
+    void remove(Instruction instr)
+    {
+        instructions.remove(instr);
+    }
+
+    // Drops the edge at position index of the predecessors, and the phi
+    // operands for it
+    void removePredecessor(int index)
+    {
+        predecessors.remove(index);
+        for (Instruction phi : phis())
+            phi.removeOperand(index);
+    }
+
+    void setPredecessor(int index, BasicBlock block)
+    {
+        predecessors.set(index, block);
+    }
+}
@@ -0,0 +1,406 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ast.*;
+
+// Builds the IR of a checked AST. Variables stay in memory: every read of
+// one is a load and every assignment a store. Conditions become branches,
+// and an and/or whose value is used becomes a phi of the value of its right
+// operand and the constant its left one decides it with. A return in an
+// inlined body stores to the result of the call and jumps past the body.
+// Code after a return goes to blocks nothing jumps to, which are dropped.
+public class Builder implements CommandVisitor {
+
+    private Unit unit = new Unit();
+    private Function function;
+    // where instructions go, null after a return until something starts a block
+    private BasicBlock current;
+    private HashMap<Command, Value> values = new HashMap<>();
+    // the blocks a condition goes to when it is true and when it is false
+    private HashMap<Command, BasicBlock[]> conditions = new HashMap<>();
+    // the blocks an if, a while or the value of an and/or goes on to, as its
+    // children are built
+    private HashMap<Command, BasicBlock[]> blocks = new HashMap<>();
+    // the inlined calls being built and the blocks after them, innermost first
+    private ArrayDeque<InlinedCall> inlinedCalls = new ArrayDeque<>();
+    private ArrayDeque<BasicBlock> continuations = new ArrayDeque<>();
+
+    public Unit build(Command ast)
+    {
+        new Walker().walk(ast);
+        return unit;
+    }
+
+    // Control flow is set up on the way down (pre) and between children
+    // (in), the instructions that consume the children's values are built
+    // on the way up (post, via visit)
+    private class Walker extends TreeWalker
+    {
+        @Override
+        protected boolean pre(Command node)
+        {
+            switch (node.kind()) {
+                case FUNCTION_DEFINITION:
+                    function = new Function((FunctionDefinition) node);
+                    start(function.newBlock());
+                    break;
+                case IF_ELSE_BRANCH:
+                    enter((IfElseBranch) node);
+                    break;
+                case WHILE_LOOP:
+                    enter((WhileLoop) node);
+                    break;
+                case LOGICAL_AND:
+                case LOGICAL_OR:
+                    enterLogical(node);
+                    break;
+                case LOGICAL_NOT:
+                    if (conditions.containsKey(node)) {
+                        BasicBlock[] targets = conditions.get(node);
+                        conditions.put(node.child(0), new BasicBlock[] { targets[1], targets[0] });
+                    }
+                    break;
+                case INLINED_CALL:
+                    inlinedCalls.push((InlinedCall) node);
+                    continuations.push(function.newBlock());
+                    break;
+                default:
+                    break;
+            }
+            return true;
+        }
+
+        @Override
+        protected void in(Command node, int index)
+        {
+            switch (node.kind()) {
+                case IF_ELSE_BRANCH:
+                    between((IfElseBranch) node, index);
+                    break;
+                case WHILE_LOOP:
+                    if (index == 0)
+                        start(blocks.get(node)[0]);
+                    break;
+                case LOGICAL_AND:
+                case LOGICAL_OR:
+                    if (index == 0)
+                        betweenLogical(node);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        protected void post(Command node)
+        {
+            BasicBlock[] targets = conditions.remove(node);
+            if (targets == null) {
+                Dispatch.visit(node, Builder.this);
+                return;
+            }
+            switch (node.kind()) {
+                case LOGICAL_AND:
+                case LOGICAL_OR:
+                    blocks.remove(node);
+                    break;
+                case LOGICAL_NOT:
+                    // the operands have branched already
+                    break;
+                case LITERAL_BOOL:
+                    boolean value = ((LiteralBool) node).value() == LiteralBool.Value.TRUE;
+                    jump(node, value ? targets[0] : targets[1]);
+                    break;
+                default:
+                    Dispatch.visit(node, Builder.this);
+                    emit(node, Instruction.branch(values.get(node), targets[0], targets[1]));
+                    current = null;
+                    break;
+            }
+        }
+    }
+
+    // Appends instr to the current block, or to a new block if there is
+    // none, which nothing goes to
+    private Instruction emit(Command node, Instruction instr)
+    {
+        if (current == null)
+            start(function.newBlock());
+        instr.setOrigin(node.start());
+        return current.append(instr);
+    }
+
+    private void start(BasicBlock block)
+    {
+        function.add(block);
+        current = block;
+    }
+
+    // Ends the current block, if there is one, with a jump to target
+    private void jump(Command node, BasicBlock target)
+    {
+        if (current != null)
+            emit(node, Instruction.jump(target));
+        current = null;
+    }
+
+    private void value(Command node, Instruction instr)
+    {
+        values.put(node, emit(node, instr));
+    }
+
+    private Value valueOf(Object node)
+    {
+        return values.get((Command) node);
+    }
+
+    // then block, else block and the block after the if; without an else
+    // the condition goes straight to the one after
+    private void enter(IfElseBranch node)
+    {
+        BasicBlock[] targets = { function.newBlock(), function.newBlock(), function.newBlock() };
+        if (node.elseBlock().childCount() == 0)
+            targets[1] = targets[2];
+        blocks.put(node, targets);
+        conditions.put((Command) node.condition(), new BasicBlock[] { targets[0], targets[1] });
+    }
+
+    private void between(IfElseBranch node, int index)
+    {
+        BasicBlock[] targets = blocks.get(node);
+        if (index == 0) {
+            start(targets[0]);
+        } else if (index == 1) {
+            jump(node, targets[2]);
+            if (targets[1] != targets[2])
+                start(targets[1]);
+        }
+    }
+
+    // The test at the top of the loop goes to the body or to the block
+    // after the loop, and the body jumps back to the test
+    private void enter(WhileLoop node)
+    {
+        BasicBlock test = function.newBlock();
+        BasicBlock[] targets = { function.newBlock(), function.newBlock(), test };
+        blocks.put(node, targets);
+        jump(node, test);
+        start(test);
+        conditions.put((Command) node.condition(), new BasicBlock[] { targets[0], targets[1] });
+    }
+
+    // As a value, the left operand of an and/or branches to the right one or
+    // to the block after, where a phi takes the value. As a condition, the
+    // left operand branches to the right one or where the and/or goes.
+    private void enterLogical(Command node)
+    {
+        boolean and = node.kind() == Command.Kind.LOGICAL_AND;
+        BasicBlock right = function.newBlock();
+        BasicBlock[] targets = conditions.get(node);
+        if (targets != null) {
+            conditions.put(node.child(0), and ? new BasicBlock[] { right, targets[1] }
+                    : new BasicBlock[] { targets[0], right });
+            conditions.put(node.child(1), targets);
+            blocks.put(node, new BasicBlock[] { right });
+            return;
+        }
+        BasicBlock join = function.newBlock();
+        conditions.put(node.child(0), and ? new BasicBlock[] { right, join } : new BasicBlock[] { join, right });
+        blocks.put(node, new BasicBlock[] { right, join });
+    }
+
+    private void betweenLogical(Command node)
+    {
+        start(blocks.get(node)[0]);
+    }
+
+    // The value of an and/or: every edge into the block after it but the one
+    // from its right operand comes from the left operand deciding it
+    private void logicalValue(Command node)
+    {
+        BasicBlock[] targets = blocks.remove(node);
+        Value right = valueOf(node.child(1));
+        BasicBlock rightEnd = current;
+        jump(node, targets[1]);
+        start(targets[1]);
+        Instruction phi = Instruction.phi(right.type());
+        phi.setOrigin(node.start());
+        Constant decided = Constant.of(node.kind() == Command.Kind.LOGICAL_OR);
+        for (BasicBlock pred : targets[1].predecessors())
+            phi.addOperand(pred == rightEnd ? right : decided);
+        current.addPhi(phi);
+        values.put(node, phi);
+    }
+
+    @Override
+    public void visit(ExpressionList node) {
+    }
+
+    @Override
+    public void visit(DeclarationList node) {
+    }
+
+    @Override
+    public void visit(StatementList node) {
+    }
+
+    @Override
+    public void visit(AddressOf node) {
+        value(node, Instruction.address(node.symbol()));
+    }
+
+    @Override
+    public void visit(LiteralBool node) {
+        values.put(node, Constant.of(node.value() == LiteralBool.Value.TRUE));
+    }
+
+    @Override
+    public void visit(LiteralFloat node) {
+        values.put(node, Constant.of(node.value()));
+    }
+
+    @Override
+    public void visit(LiteralInt node) {
+        values.put(node, Constant.of(node.value()));
+    }
+
+    @Override
+    public void visit(VariableDeclaration node) {
+        if (function != null)
+            function.locals().add(node);
+        else
+            unit.globals().add(node);
+    }
+
+    @Override
+    public void visit(ArrayDeclaration node) {
+        if (function != null)
+            function.locals().add(node);
+        else
+            unit.globals().add(node);
+    }
+
+    @Override
+    public void visit(FunctionDefinition node) {
+        if (current != null)
+            emit(node, Instruction.ret(null));
+        current = null;
+        function.removeUnreachableBlocks();
+        unit.functions().add(function);
+        function = null;
+        values.clear();
+    }
+
+    private void arithmetic(Command node, Instruction.Op op) {
+        value(node, Instruction.arithmetic(op, valueOf(node.child(0)), valueOf(node.child(1))));
+    }
+
+    @Override
+    public void visit(Addition node) {
+        arithmetic(node, Instruction.Op.ADD);
+    }
+
+    @Override
+    public void visit(Subtraction node) {
+        arithmetic(node, Instruction.Op.SUB);
+    }
+
+    @Override
+    public void visit(Multiplication node) {
+        arithmetic(node, Instruction.Op.MUL);
+    }
+
+    @Override
+    public void visit(Division node) {
+        arithmetic(node, Instruction.Op.DIV);
+    }
+
+    @Override
+    public void visit(LogicalAnd node) {
+        logicalValue(node);
+    }
+
+    @Override
+    public void visit(LogicalOr node) {
+        logicalValue(node);
+    }
+
+    @Override
+    public void visit(LogicalNot node) {
+        value(node, Instruction.not(valueOf(node.expression())));
+    }
+
+    @Override
+    public void visit(Comparison node) {
+        value(node, Instruction.compare(node.operation(), valueOf(node.leftSide()), valueOf(node.rightSide())));
+    }
+
+    @Override
+    public void visit(Dereference node) {
+        value(node, Instruction.load(valueOf(node.expression())));
+    }
+
+    @Override
+    public void visit(Index node) {
+        value(node, Instruction.index(valueOf(node.base()), valueOf(node.amount())));
+    }
+
+    @Override
+    public void visit(Assignment node) {
+        emit(node, Instruction.store(valueOf(node.destination()), valueOf(node.source())));
+    }
+
+    @Override
+    public void visit(Call node) {
+        ArrayList<Value> arguments = new ArrayList<>();
+        for (Expression argument : node.arguments())
+            arguments.add(valueOf(argument));
+        value(node, Instruction.call(node.function(), arguments));
+    }
+
+    @Override
+    public void visit(IfElseBranch node) {
+        BasicBlock[] targets = blocks.remove(node);
+        jump(node, targets[2]);
+        start(targets[2]);
+    }
+
+    @Override
+    public void visit(WhileLoop node) {
+        BasicBlock[] targets = blocks.remove(node);
+        jump(node, targets[2]);
+        start(targets[1]);
+    }
+
+    @Override
+    public void visit(Return node) {
+        Value value = valueOf(node.argument());
+        if (inlinedCalls.isEmpty()) {
+            emit(node, Instruction.ret(value));
+            current = null;
+            return;
+        }
+        InlinedCall call = inlinedCalls.peek();
+        if (call.result() != null) {
+            Instruction result = emit(node, Instruction.address(call.result()));
+            emit(node, Instruction.store(result, value));
+        }
+        jump(node, continuations.peek());
+    }
+
+    @Override
+    public void visit(InlinedCall node) {
+        inlinedCalls.pop();
+        BasicBlock continuation = continuations.pop();
+        jump(node, continuation);
+        start(continuation);
+    }
+
+    @Override
+    public void visit(ast.Error node) {
+        throw new IllegalArgumentException("Cannot build the IR of a " + node);
+    }
+}
@@ -0,0 +1,57 @@
+package ir;
+
+import types.BoolType;
+import types.FloatType;
+import types.IntType;
+import types.Type;
+
+// An int, float or bool known at compile time. A bool is 1 or 0.
+public class Constant extends Value {
+
+    private final int bits;
+
+    private Constant(Type type, int bits)
+    {
+        super(type);
+        this.bits = bits;
+    }
+
+    public static Constant of(int value)
+    {
+        return new Constant(new IntType(), value);
+    }
+
+    public static Constant of(float value)
+    {
+        return new Constant(new FloatType(), Float.floatToIntBits(value));
+    }
+
+    public static Constant of(boolean value)
+    {
+        return new Constant(new BoolType(), value ? 1 : 0);
+    }
+
+    // The value of an int or bool constant
+    public int intValue()
+    {
+        return bits;
+    }
+
+    public float floatValue()
+    {
+        return Float.intBitsToFloat(bits);
+    }
+
+    @Override
+    public String toString()
+    {
+        switch (type().kind()) {
+            case FLOAT:
+                return Float.toString(floatValue());
+            case BOOL:
+                return bits != 0 ? "true" : "false";
+            default:
+                return Integer.toString(bits);
+        }
+    }
+}
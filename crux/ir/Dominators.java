@@ -0,0 +1,154 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// The dominator tree of a function: a block dominates another if every path
+// from the entry to the other goes through it. Found by iterating over the
+// blocks in reverse postorder until the immediate dominators settle, as in
+// Cooper, Harvey and Kennedy's "A Simple, Fast Dominance Algorithm".
+public class Dominators {
+
+    private ArrayList<BasicBlock> order = new ArrayList<>();
+    private HashMap<BasicBlock, Integer> number = new HashMap<>();
+    private HashMap<BasicBlock, BasicBlock> idom = new HashMap<>();
+    private HashMap<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    private HashMap<BasicBlock, List<BasicBlock>> frontiers;
+
+    public Dominators(Function function)
+    {
+        postorder(function.entry());
+        Collections.reverse(order);
+        for (int i = 0; i < order.size(); i++) {
+            number.put(order.get(i), i);
+            children.put(order.get(i), new ArrayList<>());
+        }
+
+        BasicBlock entry = function.entry();
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order) {
+                if (block == entry)
+                    continue;
+                BasicBlock dominator = null;
+                for (BasicBlock pred : block.predecessors()) {
+                    if (!idom.containsKey(pred))
+                        continue;
+                    dominator = dominator == null ? pred : intersect(pred, dominator);
+                }
+                if (idom.get(block) != dominator) {
+                    idom.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : order)
+            if (block != entry)
+                children.get(idom.get(block)).add(block);
+    }
+
+    // Depth first, without recursion so that long chains of blocks are fine
+    private void postorder(BasicBlock entry)
+    {
+        HashSet<BasicBlock> seen = new HashSet<>();
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        ArrayList<Integer> next = new ArrayList<>();
+        seen.add(entry);
+        stack.add(entry);
+        next.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            List<BasicBlock> successors = block.successors();
+            int i = next.get(top);
+            if (i < successors.size()) {
+                next.set(top, i + 1);
+                if (seen.add(successors.get(i))) {
+                    stack.add(successors.get(i));
+                    next.add(0);
+                }
+            } else {
+                order.add(block);
+                stack.remove(top);
+                next.remove(top);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b)
+    {
+        while (a != b) {
+            while (number.get(a) > number.get(b))
+                a = idom.get(a);
+            while (number.get(b) > number.get(a))
+                b = idom.get(b);
+        }
+        return a;
+    }
+
+    // The blocks reachable from the entry, in reverse postorder
+    public List<BasicBlock> reversePostorder()
+    {
+        return order;
+    }
+
+    public boolean isReachable(BasicBlock block)
+    {
+        return number.containsKey(block);
+    }
+
+    // The immediate dominator of block, the entry for the entry itself
+    public BasicBlock idom(BasicBlock block)
+    {
+        return idom.get(block);
+    }
+
+    // The blocks block is the immediate dominator of
+    public List<BasicBlock> children(BasicBlock block)
+    {
+        return children.get(block);
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b)
+    {
+        while (true) {
+            if (a == b)
+                return true;
+            BasicBlock up = idom.get(b);
+            if (up == b)
+                return false;
+            b = up;
+        }
+    }
+
+    // The dominance frontier of block: the blocks it does not strictly
+    // dominate but dominates a predecessor of. Found for all blocks at
+    // once, walking up from the predecessors of every join.
+    public List<BasicBlock> frontier(BasicBlock block)
+    {
+        if (frontiers == null) {
+            frontiers = new HashMap<>();
+            for (BasicBlock join : order)
+                frontiers.put(join, new ArrayList<>());
+            for (BasicBlock join : order) {
+                if (join.predecessors().size() < 2)
+                    continue;
+                for (BasicBlock pred : join.predecessors()) {
+                    BasicBlock runner = pred;
+                    while (isReachable(runner) && runner != idom.get(join)) {
+                        List<BasicBlock> frontier = frontiers.get(runner);
+                        if (!frontier.contains(join))
+                            frontier.add(join);
+                        runner = idom.get(runner);
+                    }
+                }
+            }
+        }
+        return frontiers.get(block);
+    }
+}
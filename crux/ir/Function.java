@@ -0,0 +1,128 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import ast.Declaration;
+import ast.FunctionDefinition;
+import crux.Symbol;
+
+// The basic blocks of a function, the entry block first. The order of the
+// blocks is the order their code is laid out in.
+public class Function {
+
+    private FunctionDefinition definition;
+    private ArrayList<BasicBlock> blocks = new ArrayList<>();
+    // the variables of the function's frame, not counting the parameters
+    private ArrayList<Declaration> locals = new ArrayList<>();
+    private ArrayList<Argument> arguments = new ArrayList<>();
+
+    public Function(FunctionDefinition definition)
+    {
+        this.definition = definition;
+        for (Symbol parameter : definition.arguments())
+            arguments.add(new Argument(parameter, arguments.size()));
+    }
+
+    public FunctionDefinition definition()
+    {
+        return definition;
+    }
+
+    public Symbol symbol()
+    {
+        return definition.symbol();
+    }
+
+    public List<Symbol> parameters()
+    {
+        return definition.arguments();
+    }
+
+    // The values of the parameters on entry, one for each of them
+    public List<Argument> arguments()
+    {
+        return arguments;
+    }
+
+    public List<BasicBlock> blocks()
+    {
+        return blocks;
+    }
+
+    public BasicBlock entry()
+    {
+        return blocks.get(0);
+    }
+
+    public List<Declaration> locals()
+    {
+        return locals;
+    }
+
+    // A block that is not laid out yet
+    public BasicBlock newBlock()
+    {
+        return new BasicBlock(this);
+    }
+
+    // Lays block out after the ones laid out so far
+    public void add(BasicBlock block)
+    {
+        blocks.add(block);
+    }
+
+    // Drops the blocks control cannot get to from the entry
+    public void removeUnreachableBlocks()
+    {
+        HashSet<BasicBlock> reached = new HashSet<>();
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        reached.add(entry());
+        work.add(entry());
+        while (!work.isEmpty())
+            for (BasicBlock successor : work.remove().successors())
+                if (reached.add(successor))
+                    work.add(successor);
+
+        for (BasicBlock block : blocks) {
+            if (reached.contains(block))
+                continue;
+            for (BasicBlock successor : block.successors())
+                successor.removePredecessor(successor.predecessors().indexOf(block));
+            for (Instruction instr : block.instructions())
+                for (int i = instr.operandCount() - 1; i >= 0; i--)
+                    instr.removeOperand(i);
+        }
+        blocks.retainAll(reached);
+    }
+
+    // Puts a block of its own on every edge from a block with more than one
+    // successor to one with more than one predecessor or with phis, so that
+    // there is a place for the copies of the phis of the successor. The new
+    // block is laid out right after the one the edge leaves.
+    public void splitCriticalEdges()
+    {
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock block = blocks.get(b);
+            Instruction terminator = block.terminator();
+            if (terminator == null || terminator.targetCount() < 2)
+                continue;
+            for (int i = 0; i < terminator.targetCount(); i++) {
+                BasicBlock target = terminator.target(i);
+                if (target.predecessors().size() < 2 && target.phis().isEmpty())
+                    continue;
+                BasicBlock split = newBlock();
+                blocks.add(b + 1, split);
+                // the edge keeps its place among the target's predecessors
+                target.setPredecessor(target.predecessors().indexOf(block), split);
+                terminator.setTarget(i, split);
+                split.predecessors().add(block);
+                Instruction jump = Instruction.jump(target);
+                jump.setBlock(split);
+                split.instructions().add(jump);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.Comparison;
+import crux.Symbol;
+import types.AddressType;
+import types.BoolType;
+import types.FuncType;
+import types.Type;
+import types.VoidType;
+
+// An instruction of a basic block, which is also the value it computes.
+// Memory is only read and written by load and store, through addresses that
+// address and index compute. The arithmetic instructions work on ints or
+// floats as their operands are. A phi, only at the start of a block, has one
+// operand for each predecessor of the block, in the same order: the value it
+// takes when control comes from there. Jump, branch and return end a block.
+public class Instruction extends Value {
+
+    public enum Op
+    {
+        ADDRESS,    // the address of a variable
+        INDEX,      // address of the element of an array, given its address
+        LOAD,       // the value at an address
+        STORE,      // stores the second operand at the address of the first
+        ADD,
+        SUB,
+        MUL,
+        DIV,
+        COMPARE,    // bool
+        NOT,        // bool
+        CALL,
+        PHI,
+        JUMP,
+        BRANCH,     // to the first target if the operand is true
+        RETURN;     // with the value of its operand, if it has one
+
+        public boolean isTerminator()
+        {
+            return this == JUMP || this == BRANCH || this == RETURN;
+        }
+    }
+
+    private final Op op;
+    private ArrayList<Value> operands = new ArrayList<>();
+    private BasicBlock block;
+    // the variable of an address, the function of a call
+    private Symbol symbol;
+    private Comparison.Operation comparison;
+    private BasicBlock[] targets = {};
+    // the source offset of the node the instruction was built for, or -1
+    private int origin = -1;
+
+    private Instruction(Op op, Type type, Value... operands)
+    {
+        super(type);
+        this.op = op;
+        for (Value operand : operands)
+            addOperand(operand);
+    }
+
+    public static Instruction address(Symbol variable)
+    {
+        Instruction address = new Instruction(Op.ADDRESS, new AddressType(variable.type()));
+        address.symbol = variable;
+        return address;
+    }
+
+    public static Instruction index(Value base, Value amount)
+    {
+        return new Instruction(Op.INDEX, base.type().index(amount.type()), base, amount);
+    }
+
+    public static Instruction load(Value address)
+    {
+        return new Instruction(Op.LOAD, address.type().deref(), address);
+    }
+
+    public static Instruction store(Value address, Value value)
+    {
+        return new Instruction(Op.STORE, new VoidType(), address, value);
+    }
+
+    // ADD, SUB, MUL or DIV
+    public static Instruction arithmetic(Op op, Value left, Value right)
+    {
+        return new Instruction(op, left.type(), left, right);
+    }
+
+    public static Instruction compare(Comparison.Operation operation, Value left, Value right)
+    {
+        Instruction compare = new Instruction(Op.COMPARE, new BoolType(), left, right);
+        compare.comparison = operation;
+        return compare;
+    }
+
+    public static Instruction not(Value operand)
+    {
+        return new Instruction(Op.NOT, new BoolType(), operand);
+    }
+
+    public static Instruction call(Symbol function, List<Value> arguments)
+    {
+        Instruction call = new Instruction(Op.CALL, ((FuncType) function.type()).returnType());
+        call.symbol = function;
+        for (Value argument : arguments)
+            call.addOperand(argument);
+        return call;
+    }
+
+    // A phi without operands, they are added one per predecessor
+    public static Instruction phi(Type type)
+    {
+        return new Instruction(Op.PHI, type);
+    }
+
+    public static Instruction jump(BasicBlock target)
+    {
+        Instruction jump = new Instruction(Op.JUMP, new VoidType());
+        jump.targets = new BasicBlock[] { target };
+        return jump;
+    }
+
+    public static Instruction branch(Value condition, BasicBlock ifTrue, BasicBlock ifFalse)
+    {
+        Instruction branch = new Instruction(Op.BRANCH, new VoidType(), condition);
+        branch.targets = new BasicBlock[] { ifTrue, ifFalse };
+        return branch;
+    }
+
+    // value may be null
+    public static Instruction ret(Value value)
+    {
+        return value != null ? new Instruction(Op.RETURN, new VoidType(), value)
+                : new Instruction(Op.RETURN, new VoidType());
+    }
+
+    public Op op()
+    {
+        return op;
+    }
+
+    public BasicBlock block()
+    {
+        return block;
+    }
+
+    void setBlock(BasicBlock block)
+    {
+        this.block = block;
+    }
+
+    public Symbol symbol()
+    {
+        return symbol;
+    }
+
+    public Comparison.Operation comparison()
+    {
+        return comparison;
+    }
+
+    public int origin()
+    {
+        return origin;
+    }
+
+    public void setOrigin(int origin)
+    {
+        this.origin = origin;
+    }
+
+    public int operandCount()
+    {
+        return operands.size();
+    }
+
+    public Value operand(int index)
+    {
+        return operands.get(index);
+    }
+
+    public void setOperand(int index, Value value)
+    {
+        operands.get(index).removeUser(this);
+        operands.set(index, value);
+        value.addUser(this);
+    }
+
+    public void addOperand(Value value)
+    {
+        operands.add(value);
+        value.addUser(this);
+    }
+
+    public void removeOperand(int index)
+    {
+        operands.remove(index).removeUser(this);
+    }
+
+    // The blocks a terminator goes on to, the true one first for a branch
+    public int targetCount()
+    {
+        return targets.length;
+    }
+
+    public BasicBlock target(int index)
+    {
+        return targets[index];
+    }
+
+    void setTarget(int index, BasicBlock target)
+    {
+        targets[index] = target;
+    }
+
+    public boolean isTerminator()
+    {
+        return op.isTerminator();
+    }
+
+    // Takes the instruction out of its block and drops its operands
+    public void remove()
+    {
+        for (int i = operands.size() - 1; i >= 0; i--)
+            removeOperand(i);
+        block.remove(this);
+        block = null;
+    }
+}
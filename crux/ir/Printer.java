@@ -0,0 +1,126 @@
+package ir;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import ast.Declaration;
+import crux.Symbol;
+import types.FuncType;
+import types.Type;
+
+// The text of the IR, for reading and for comparing before and after a pass.
+// Blocks are b0, b1, ... and the values of a function %0, %1, ... in the
+// order they are laid out; variables are named, globals with an @.
+//
+//     function f(n) : int
+//     b0:
+//         %0 = address n : Address(int)
+//         %1 = load %0 : int
+//         branch %1, b1, b2
+public class Printer {
+
+    private StringBuilder out = new StringBuilder();
+    private HashMap<BasicBlock, String> blockNames = new HashMap<>();
+    private HashMap<Value, String> valueNames = new HashMap<>();
+    private HashSet<Symbol> locals = new HashSet<>();
+
+    public static String print(Unit unit)
+    {
+        Printer printer = new Printer();
+        for (Declaration global : unit.globals())
+            printer.out.append("global @").append(global.symbol().name())
+                    .append(" : ").append(global.symbol().type()).append('\n');
+        for (Function function : unit.functions())
+            printer.function(function);
+        return printer.out.toString();
+    }
+
+    public static String print(Function function)
+    {
+        Printer printer = new Printer();
+        printer.function(function);
+        return printer.out.toString();
+    }
+
+    private void function(Function function)
+    {
+        blockNames.clear();
+        valueNames.clear();
+        locals.clear();
+        locals.addAll(function.parameters());
+        for (Declaration local : function.locals())
+            locals.add(local.symbol());
+        for (BasicBlock block : function.blocks()) {
+            blockNames.put(block, "b" + blockNames.size());
+            for (Instruction instr : block.instructions())
+                if (instr.type().kind() != Type.Kind.VOID)
+                    valueNames.put(instr, "%" + valueNames.size());
+        }
+
+        if (out.length() > 0)
+            out.append('\n');
+        out.append("function ").append(function.symbol().name()).append('(');
+        for (int i = 0; i < function.parameters().size(); i++)
+            out.append(i > 0 ? ", " : "").append(function.parameters().get(i).name());
+        out.append(") : ").append(((FuncType) function.symbol().type()).returnType()).append('\n');
+        for (Declaration local : function.locals())
+            out.append("local ").append(local.symbol().name()).append(" : ").append(local.symbol().type()).append('\n');
+        for (BasicBlock block : function.blocks())
+            block(block);
+    }
+
+    private void block(BasicBlock block)
+    {
+        out.append(name(block)).append(':');
+        if (!block.predecessors().isEmpty()) {
+            out.append("    ; preds");
+            for (BasicBlock pred : block.predecessors())
+                out.append(' ').append(name(pred));
+        }
+        out.append('\n');
+        for (Instruction instr : block.instructions())
+            instruction(instr);
+    }
+
+    private void instruction(Instruction instr)
+    {
+        out.append("    ");
+        if (valueNames.containsKey(instr))
+            out.append(name(instr)).append(" = ");
+        out.append(instr.op().name().toLowerCase());
+        if (instr.op() == Instruction.Op.COMPARE)
+            out.append(' ').append(instr.comparison().name().toLowerCase());
+        if (instr.symbol() != null)
+            out.append(' ').append(name(instr.symbol()));
+        for (int i = 0; i < instr.operandCount(); i++) {
+            out.append(i > 0 || instr.symbol() != null ? ", " : " ").append(name(instr.operand(i)));
+            if (instr.op() == Instruction.Op.PHI && i < instr.block().predecessors().size())
+                out.append(" [").append(name(instr.block().predecessors().get(i))).append(']');
+        }
+        for (int i = 0; i < instr.targetCount(); i++)
+            out.append(i > 0 || instr.operandCount() > 0 ? ", " : " ").append(name(instr.target(i)));
+        if (valueNames.containsKey(instr))
+            out.append(" : ").append(instr.type());
+        out.append('\n');
+    }
+
+    private String name(BasicBlock block)
+    {
+        String name = blockNames.get(block);
+        return name != null ? name : "<missing block>";
+    }
+
+    private String name(Value value)
+    {
+        if (value instanceof Constant || value instanceof Argument)
+            return value.toString();
+        String name = valueNames.get(value);
+        return name != null ? name : "<" + value.getClass().getSimpleName() + " not in function>";
+    }
+
+    // Locals and parameters by name, globals with an @
+    private String name(Symbol symbol)
+    {
+        return locals.contains(symbol) || symbol.type() instanceof FuncType ? symbol.name() : "@" + symbol.name();
+    }
+}
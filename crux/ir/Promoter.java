@@ -0,0 +1,259 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import ast.Declaration;
+import ast.VariableDeclaration;
+import crux.Symbol;
+import types.Type;
+
+// Promotes the scalar locals and parameters of a function whose address is
+// only ever loaded from and stored to into SSA values, as in Cytron et al.:
+// phis go at the iterated dominance frontiers of the blocks that store to
+// a variable, then a walk over the dominator tree replaces every load with
+// the value the variable has there and drops the stores. A parameter
+// starts out as its argument, a local as zero. The phis that turn out to
+// be unused, or to always take the same value, are dropped again.
+public class Promoter {
+
+    // the variables being promoted and the values they start out with
+    private LinkedHashMap<Symbol, Value> initial = new LinkedHashMap<>();
+    // the phis placed for them, and the value each one has at this point
+    // of the walk, innermost last
+    private LinkedHashMap<Instruction, Symbol> phis = new LinkedHashMap<>();
+    private HashMap<Symbol, ArrayList<Value>> values = new HashMap<>();
+    private int promoted;
+
+    public void promote(Unit unit)
+    {
+        for (Function function : unit.functions())
+            promote(function);
+    }
+
+    // The number of variables promoted so far
+    public int promoted()
+    {
+        return promoted;
+    }
+
+    public void promote(Function function)
+    {
+        initial.clear();
+        phis.clear();
+        values.clear();
+        for (int i = 0; i < function.parameters().size(); i++)
+            initial.put(function.parameters().get(i), function.arguments().get(i));
+        for (Declaration local : function.locals())
+            if (local instanceof VariableDeclaration)
+                initial.put(local.symbol(), zero(local.symbol().type()));
+
+        LinkedHashMap<Symbol, ArrayList<Instruction>> addresses = new LinkedHashMap<>();
+        HashSet<Symbol> escaping = new HashSet<>();
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instr : block.instructions()) {
+                if (instr.op() != Instruction.Op.ADDRESS || !initial.containsKey(instr.symbol()))
+                    continue;
+                if (!onlyLoadedAndStored(instr))
+                    escaping.add(instr.symbol());
+                addresses.computeIfAbsent(instr.symbol(), symbol -> new ArrayList<>()).add(instr);
+            }
+        }
+        initial.keySet().removeIf(symbol -> escaping.contains(symbol) || !isScalar(symbol.type()));
+        if (initial.isEmpty())
+            return;
+        promoted += initial.size();
+
+        Dominators dominators = new Dominators(function);
+        for (Symbol variable : initial.keySet()) {
+            values.put(variable, new ArrayList<>());
+            placePhis(variable, addresses.getOrDefault(variable, new ArrayList<>()), dominators);
+        }
+        rename(function, dominators);
+        for (Symbol variable : initial.keySet())
+            for (Instruction address : addresses.getOrDefault(variable, new ArrayList<>()))
+                address.remove();
+        removeUselessPhis();
+    }
+
+    private static boolean onlyLoadedAndStored(Instruction address)
+    {
+        for (Instruction user : address.users()) {
+            if (user.op() == Instruction.Op.LOAD)
+                continue;
+            if (user.op() != Instruction.Op.STORE || user.operand(1) == address)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isScalar(Type type)
+    {
+        switch (type.kind()) {
+            case INT:
+            case FLOAT:
+            case BOOL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Constant zero(Type type)
+    {
+        switch (type.kind()) {
+            case FLOAT:
+                return Constant.of(0.0f);
+            case BOOL:
+                return Constant.of(false);
+            default:
+                return Constant.of(0);
+        }
+    }
+
+    // A phi at every block of the iterated dominance frontier of the
+    // blocks storing to variable, with the initial value on every edge
+    // until the walk fills them in
+    private void placePhis(Symbol variable, List<Instruction> addresses, Dominators dominators)
+    {
+        HashSet<BasicBlock> stores = new HashSet<>();
+        for (Instruction address : addresses)
+            for (Instruction user : address.users())
+                if (user.op() == Instruction.Op.STORE)
+                    stores.add(user.block());
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>(stores);
+        HashSet<BasicBlock> placed = new HashSet<>();
+        while (!work.isEmpty()) {
+            for (BasicBlock join : dominators.frontier(work.remove())) {
+                if (!placed.add(join))
+                    continue;
+                Instruction phi = Instruction.phi(variable.type());
+                for (int i = 0; i < join.predecessors().size(); i++)
+                    phi.addOperand(initial.get(variable));
+                join.addPhi(phi);
+                phis.put(phi, variable);
+                if (!stores.contains(join))
+                    work.add(join);
+            }
+        }
+    }
+
+    // Depth first over the dominator tree, without recursion so that long
+    // chains of blocks are fine. A block is on the stack twice: once to
+    // rename in, once to forget the values it gave its variables.
+    private void rename(Function function, Dominators dominators)
+    {
+        ArrayDeque<BasicBlock> stack = new ArrayDeque<>();
+        HashMap<BasicBlock, ArrayList<Symbol>> defined = new HashMap<>();
+        stack.push(function.entry());
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.peek();
+            ArrayList<Symbol> variables = defined.remove(block);
+            if (variables != null) {
+                stack.pop();
+                for (Symbol variable : variables) {
+                    ArrayList<Value> current = values.get(variable);
+                    current.remove(current.size() - 1);
+                }
+                continue;
+            }
+            variables = new ArrayList<>();
+            defined.put(block, variables);
+            rename(block, variables);
+            List<BasicBlock> children = dominators.children(block);
+            for (int i = children.size() - 1; i >= 0; i--)
+                stack.push(children.get(i));
+        }
+    }
+
+    private void rename(BasicBlock block, List<Symbol> variables)
+    {
+        for (Instruction instr : new ArrayList<>(block.instructions())) {
+            if (instr.op() == Instruction.Op.PHI && phis.containsKey(instr)) {
+                define(phis.get(instr), instr, variables);
+            } else if (instr.op() == Instruction.Op.LOAD && isPromoted(instr.operand(0))) {
+                instr.replaceAllUsesWith(current(variable(instr.operand(0))));
+                instr.remove();
+            } else if (instr.op() == Instruction.Op.STORE && isPromoted(instr.operand(0))) {
+                define(variable(instr.operand(0)), instr.operand(1), variables);
+                instr.remove();
+            }
+        }
+        HashSet<BasicBlock> seen = new HashSet<>();
+        for (BasicBlock successor : block.successors()) {
+            if (!seen.add(successor))
+                continue;
+            for (Instruction phi : successor.phis()) {
+                Symbol variable = phis.get(phi);
+                if (variable == null)
+                    continue;
+                for (int i = 0; i < successor.predecessors().size(); i++)
+                    if (successor.predecessors().get(i) == block)
+                        phi.setOperand(i, current(variable));
+            }
+        }
+    }
+
+    private boolean isPromoted(Value address)
+    {
+        return address instanceof Instruction && ((Instruction) address).op() == Instruction.Op.ADDRESS
+                && initial.containsKey(((Instruction) address).symbol());
+    }
+
+    private static Symbol variable(Value address)
+    {
+        return ((Instruction) address).symbol();
+    }
+
+    private void define(Symbol variable, Value value, List<Symbol> variables)
+    {
+        values.get(variable).add(value);
+        variables.add(variable);
+    }
+
+    private Value current(Symbol variable)
+    {
+        ArrayList<Value> current = values.get(variable);
+        return current.isEmpty() ? initial.get(variable) : current.get(current.size() - 1);
+    }
+
+    // A phi nothing but itself uses goes, and so does one that only takes
+    // one value besides itself, which replaces it. Either can make another
+    // phi useless.
+    private void removeUselessPhis()
+    {
+        ArrayDeque<Instruction> work = new ArrayDeque<>(phis.keySet());
+        while (!work.isEmpty()) {
+            Instruction phi = work.remove();
+            if (phi.block() == null)
+                continue;
+            boolean unused = true;
+            for (Instruction user : phi.users())
+                unused &= user == phi;
+            Value same = null;
+            boolean trivial = true;
+            for (int i = 0; i < phi.operandCount() && trivial; i++) {
+                Value operand = phi.operand(i);
+                if (operand == phi || operand == same)
+                    continue;
+                trivial = same == null;
+                same = operand;
+            }
+            if (!unused && !(trivial && same != null))
+                continue;
+            for (int i = 0; i < phi.operandCount(); i++)
+                if (phi.operand(i) != phi && phis.containsKey(phi.operand(i)))
+                    work.add((Instruction) phi.operand(i));
+            for (Instruction user : phi.users())
+                if (user != phi && phis.containsKey(user))
+                    work.add(user);
+            if (!unused)
+                phi.replaceAllUsesWith(same);
+            phi.remove();
+        }
+    }
+}
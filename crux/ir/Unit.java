@@ -0,0 +1,24 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.Declaration;
+
+// The IR of a whole program: its global variables and its functions, each in
+// the order they are declared in
+public class Unit {
+
+    private ArrayList<Declaration> globals = new ArrayList<>();
+    private ArrayList<Function> functions = new ArrayList<>();
+
+    public List<Declaration> globals()
+    {
+        return globals;
+    }
+
+    public List<Function> functions()
+    {
+        return functions;
+    }
+}
@@ -0,0 +1,57 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import types.Type;
+
+// Something an instruction can take as an operand: a constant or the
+// result of an instruction. Every value is defined once, and keeps track of
+// the instructions that use it, once for each operand it is.
+public abstract class Value {
+
+    private Type type;
+    private ArrayList<Instruction> users = new ArrayList<>();
+
+    protected Value(Type type)
+    {
+        this.type = type;
+    }
+
+    public Type type()
+    {
+        return type;
+    }
+
+    public boolean isFloat()
+    {
+        return type.kind() == Type.Kind.FLOAT;
+    }
+
+    // The instructions that use this value, an instruction once for every
+    // operand of it the value is
+    public List<Instruction> users()
+    {
+        return users;
+    }
+
+    void addUser(Instruction user)
+    {
+        users.add(user);
+    }
+
+    void removeUser(Instruction user)
+    {
+        users.remove(user);
+    }
+
+    // Makes every instruction that uses this value use replacement instead
+    public void replaceAllUsesWith(Value replacement)
+    {
+        for (Instruction user : new ArrayList<>(users)) {
+            for (int i = 0; i < user.operandCount(); i++)
+                if (user.operand(i) == this)
+                    user.setOperand(i, replacement);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ir;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import types.AddressType;
+import types.FuncType;
+import types.Type;
+
+// Checks that the IR of a function is well formed, which a pass can run
+// after itself: every block is reachable and ends with its only terminator,
+// the edges agree from both ends, phis come first with an operand for every
+// predecessor, every value is defined before it is used on every path to
+// the use, and the operands are of the types the instructions take.
+public class Verifier {
+
+    private StringBuffer errorBuffer = new StringBuffer();
+    private Function function;
+    private Dominators dominators;
+    private HashSet<BasicBlock> blocks;
+    // the position of every instruction in its block
+    private HashMap<Instruction, Integer> positions = new HashMap<>();
+
+    public boolean verify(Unit unit)
+    {
+        for (Function function : unit.functions())
+            verify(function);
+        return !hasError();
+    }
+
+    public boolean verify(Function function)
+    {
+        this.function = function;
+        if (function.blocks().isEmpty()) {
+            reportError("has no blocks");
+            return false;
+        }
+        dominators = new Dominators(function);
+        blocks = new HashSet<>(function.blocks());
+        positions.clear();
+        for (BasicBlock block : function.blocks())
+            for (int i = 0; i < block.instructions().size(); i++)
+                positions.put(block.instructions().get(i), i);
+
+        if (!function.entry().predecessors().isEmpty())
+            reportError("the entry block has predecessors");
+        for (BasicBlock block : function.blocks())
+            block(block);
+        return !hasError();
+    }
+
+    public boolean hasError()
+    {
+        return errorBuffer.length() != 0;
+    }
+
+    public String errorReport()
+    {
+        return errorBuffer.toString();
+    }
+
+    private void reportError(String message)
+    {
+        errorBuffer.append("Function " + function.symbol().name() + " " + message + ".\n");
+    }
+
+    private void block(BasicBlock block)
+    {
+        String name = "block " + function.blocks().indexOf(block);
+        if (!dominators.isReachable(block))
+            reportError(name + " is unreachable");
+        if (block.terminator() == null)
+            reportError(name + " does not end with a terminator");
+
+        boolean pastPhis = false;
+        List<Instruction> instructions = block.instructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instr = instructions.get(i);
+            if (instr.block() != block)
+                reportError(name + " has an instruction of another block");
+            if (instr.isTerminator() && i != instructions.size() - 1)
+                reportError(name + " has a " + instr.op() + " before its end");
+            if (instr.op() == Instruction.Op.PHI && pastPhis)
+                reportError(name + " has a phi after other instructions");
+            pastPhis |= instr.op() != Instruction.Op.PHI;
+            instruction(name, instr);
+        }
+
+        // every edge is counted at both of its ends
+        List<BasicBlock> successors = block.successors();
+        for (BasicBlock successor : successors) {
+            if (!blocks.contains(successor))
+                reportError(name + " goes to a block not in the function");
+            else if (Collections.frequency(successor.predecessors(), block) != Collections.frequency(successors, successor))
+                reportError(name + " is not a predecessor of its successor block " + function.blocks().indexOf(successor));
+        }
+        for (BasicBlock pred : block.predecessors())
+            if (!blocks.contains(pred) || !pred.successors().contains(block))
+                reportError(name + " has a predecessor that does not go to it");
+    }
+
+    private void instruction(String name, Instruction instr)
+    {
+        String what = name + ": " + instr.op();
+        for (int i = 0; i < instr.operandCount(); i++) {
+            Value operand = instr.operand(i);
+            if (!operand.users().contains(instr))
+                reportError(what + " is not among the users of its operand " + i);
+            if (operand instanceof Argument && !function.arguments().contains(operand))
+                reportError(what + " uses a parameter of another function");
+            if (!(operand instanceof Instruction))
+                continue;
+            Instruction def = (Instruction) operand;
+            if (def.block() == null || !blocks.contains(def.block())) {
+                reportError(what + " uses a value not in the function");
+                continue;
+            }
+            // a phi uses its operands at the end of the predecessors
+            BasicBlock at = instr.op() == Instruction.Op.PHI && i < instr.block().predecessors().size()
+                    ? instr.block().predecessors().get(i) : instr.block();
+            boolean defined = def.block() == at && instr.op() != Instruction.Op.PHI
+                    ? positions.get(def) < positions.get(instr)
+                    : dominators.dominates(def.block(), at);
+            if (!defined)
+                reportError(what + " uses a value not defined on every path to it");
+        }
+
+        switch (instr.op()) {
+            case ADDRESS:
+                if (instr.symbol() == null)
+                    reportError(what + " has no variable");
+                break;
+            case INDEX:
+                expect(what, instr.operandCount() == 2 && isAddress(instr.operand(0))
+                        && instr.operand(1).type().kind() == Type.Kind.INT);
+                break;
+            case LOAD:
+                expect(what, instr.operandCount() == 1 && isAddress(instr.operand(0))
+                        && instr.type().equivalent(instr.operand(0).type().deref()));
+                break;
+            case STORE:
+                expect(what, instr.operandCount() == 2 && isAddress(instr.operand(0))
+                        && instr.operand(1).type().equivalent(instr.operand(0).type().deref()));
+                break;
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV: {
+                Type.Kind kind = instr.type().kind();
+                expect(what, instr.operandCount() == 2 && (kind == Type.Kind.INT || kind == Type.Kind.FLOAT)
+                        && instr.operand(0).type().kind() == kind && instr.operand(1).type().kind() == kind);
+                break;
+            }
+            case COMPARE:
+                expect(what, instr.operandCount() == 2 && instr.comparison() != null
+                        && instr.operand(0).type().kind() == instr.operand(1).type().kind());
+                break;
+            case NOT:
+                expect(what, instr.operandCount() == 1 && instr.operand(0).type().kind() == Type.Kind.BOOL);
+                break;
+            case CALL: {
+                int count = 0;
+                for (Type argument : ((FuncType) instr.symbol().type()).arguments())
+                    count++;
+                expect(what, instr.operandCount() == count);
+                break;
+            }
+            case PHI:
+                if (instr.operandCount() != instr.block().predecessors().size())
+                    reportError(what + " does not have an operand for every predecessor");
+                for (int i = 0; i < instr.operandCount(); i++)
+                    expect(what, instr.operand(i).type().equivalent(instr.type()));
+                break;
+            case JUMP:
+                expect(what, instr.targetCount() == 1);
+                break;
+            case BRANCH:
+                expect(what, instr.targetCount() == 2 && instr.operandCount() == 1
+                        && instr.operand(0).type().kind() == Type.Kind.BOOL);
+                break;
+            case RETURN: {
+                Type returnType = ((FuncType) function.symbol().type()).returnType();
+                expect(what, instr.operandCount() == 0 || instr.operand(0).type().equivalent(returnType));
+                break;
+            }
+        }
+    }
+
+    private void expect(String what, boolean wellFormed)
+    {
+        if (!wellFormed)
+            reportError(what + " has operands of the wrong number or type");
+    }
+
+    private static boolean isAddress(Value value)
+    {
+        return value.type() instanceof AddressType;
+    }
+}
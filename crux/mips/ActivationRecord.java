@@ -1,7 +1,11 @@
 package mips;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import crux.Symbol;
 import types.*;
@@ -12,8 +16,24 @@ public class ActivationRecord
     private ast.FunctionDefinition func;
     private ActivationRecord parent;
     private int stackSize;
+    // bytes of the frame reserved before the body, and the bytes its
+    // variable declarations will take
+    private int reserved;
+    private int declared;
+    private boolean makesCalls;
+    private boolean pushesArguments;
+    // the calls made last by a return, and whether one calls this function
+    private HashSet<ast.Call> tailCallSites;
+    private boolean selfTailCall;
+    private boolean framePointer = true;
     private HashMap<Symbol, Integer> locals;
     private HashMap<Symbol, Integer> arguments;
+    // the parameters passed in registers that stay there
+    private HashMap<Symbol, Register> kept;
+    // the parameters passed in registers that need a slot, in the order of
+    // their home slots
+    private ArrayList<Symbol> homed;
+    private ArrayList<Register> homeRegisters;
     
     public static ActivationRecord newGlobalFrame()
     {
@@ -22,26 +42,58 @@ public class ActivationRecord
     
     protected static int numBytes(Type type)
     {
-    	if (type instanceof BoolType)
-    		return 4;
-        if (type instanceof IntType)
-            return 4;
-        if (type instanceof FloatType)
-            return 4;
-        if (type instanceof ArrayType) {
-            ArrayType aType = (ArrayType)type;
-            return aType.extent() * numBytes(aType.base());
+        switch (type.kind()) {
+            case BOOL:
+            case INT:
+            case FLOAT:
+                return 4;
+            case ARRAY: {
+                ArrayType aType = (ArrayType)type;
+                return aType.extent() * numBytes(aType.base());
+            }
+            case LIST: {
+                int sum = 0;
+                for (Type t : (TypeList) type) {
+                    sum += numBytes(t);
+                }
+                return sum;
+            }
+            case VOID:
+                return 0;
+            default:
+                throw new RuntimeException("No size known for " + type);
         }
-        if (type instanceof TypeList) {
-            int sum = 0;
-            for (Type t : (TypeList) type) {
-                sum += numBytes(t);
+    }
+    
+    // The registers the arguments of the given types are passed in with the
+    // register calling convention, null for the ones passed on the stack.
+    // The first four ints and bools go in $a0-$a3, the first two floats in
+    // $f12 and $f14.
+    static List<Register> argumentRegisters(Iterable<Type> types)
+    {
+        Register[] ints = { Register.A0, Register.A1, Register.A2, Register.A3 };
+        Register[] floats = { Register.F12, Register.F14 };
+        int nextInt = 0;
+        int nextFloat = 0;
+        List<Register> regs = new ArrayList<>();
+        for (Type type : types) {
+            Register reg = null;
+            switch (type.kind()) {
+                case INT:
+                case BOOL:
+                    if (nextInt < ints.length)
+                        reg = ints[nextInt++];
+                    break;
+                case FLOAT:
+                    if (nextFloat < floats.length)
+                        reg = floats[nextFloat++];
+                    break;
+                default:
+                    break;
             }
-            return sum;
+            regs.add(reg);
         }
-        if (type instanceof VoidType)
-            return 0;
-        throw new RuntimeException("No size known for " + type);
+        return regs;
     }
     
     protected ActivationRecord()
@@ -54,20 +106,123 @@ public class ActivationRecord
     }
     
     public ActivationRecord(ast.FunctionDefinition fd, ActivationRecord parent)
+    {
+        this(fd, parent, false, false);
+    }
+    
+    // With registerArguments the parameters are passed as argumentRegisters
+    // says. If the body makes no call, the ones it does not assign to stay
+    // in their registers. The others it refers to get a slot of the frame,
+    // which homeArguments stores them to on entry.
+    // With tailCalls, a return of a call to this function, or of a call
+    // that passes nothing on the stack, is a tail call: it leaves the frame
+    // before it jumps to the function, so it does not count as a call.
+    public ActivationRecord(ast.FunctionDefinition fd, ActivationRecord parent, boolean registerArguments,
+            boolean tailCalls)
+    {
+        this(fd, parent, registerArguments, tailCalls, Collections.emptySet());
+    }
+    
+    // The same, for a code generator that keeps the parameters and locals
+    // in unaddressed out of memory: they get no slot of the frame
+    public ActivationRecord(ast.FunctionDefinition fd, ActivationRecord parent, boolean registerArguments,
+            boolean tailCalls, Set<Symbol> unaddressed)
     {
         this.func = fd;
         this.parent = parent;
         this.stackSize = 0;
         this.locals = new HashMap<>();
+        this.kept = new HashMap<>();
+        this.tailCallSites = new HashSet<>();
+        this.homed = new ArrayList<>();
+        this.homeRegisters = new ArrayList<>();
         
-        // map this function's parameters
+        List<Register> regs = new ArrayList<>();
+        for (Symbol arg : fd.arguments())
+            regs.add(null);
+        if (registerArguments) {
+            List<Type> types = new ArrayList<>();
+            for (Symbol arg : fd.arguments())
+                types.add(arg.type());
+            regs = argumentRegisters(types);
+        }
+        HashSet<Symbol> used = new HashSet<>();
+        HashSet<Symbol> assigned = new HashSet<>();
+        new ast.TreeWalker() {
+            // the returns of inlined bodies do not leave the function
+            int inlined = 0;
+
+            @Override
+            protected boolean pre(ast.Command node)
+            {
+                if (node instanceof ast.InlinedCall)
+                    inlined++;
+                if (!tailCalls || inlined > 0 || !(node instanceof ast.Return) || !(node.child(0) instanceof ast.Call))
+                    return true;
+                ast.Call call = (ast.Call) node.child(0);
+                boolean self = call.function() == fd.symbol();
+                if (self || !pushes(call, registerArguments)) {
+                    tailCallSites.add(call);
+                    selfTailCall |= self;
+                }
+                return true;
+            }
+
+            @Override
+            protected void post(ast.Command node)
+            {
+                if (node instanceof ast.InlinedCall) {
+                    inlined--;
+                } else if (node instanceof ast.AddressOf) {
+                    used.add(((ast.AddressOf) node).symbol());
+                } else if (node instanceof ast.Call) {
+                    if (tailCallSites.contains(node))
+                        return;
+                    makesCalls = true;
+                    pushesArguments |= pushes((ast.Call) node, registerArguments);
+                } else if (node instanceof ast.Assignment && node.child(0) instanceof ast.AddressOf) {
+                    assigned.add(((ast.AddressOf) node.child(0)).symbol());
+                } else if (node instanceof ast.Declaration) {
+                    Symbol symbol = ((ast.Declaration) node).symbol();
+                    if (!unaddressed.contains(symbol))
+                        declared += numBytes(symbol.type());
+                }
+            }
+        }.walk(fd.body());
+        used.removeAll(unaddressed);
+        
+        // map this function's parameters, the ones left on the stack were
+        // pushed first one first
         this.arguments = new HashMap<>();
         int offset = 0;
         for (int i=fd.arguments().size()-1; i>=0; --i) {
             Symbol arg = fd.arguments().get(i);
+            if (regs.get(i) != null)
+                continue;
             arguments.put(arg, offset);
             offset += numBytes(arg.type());
         }
+        for (int i=0; i<fd.arguments().size(); ++i) {
+            Symbol arg = fd.arguments().get(i);
+            if (regs.get(i) == null || !used.contains(arg))
+                continue;
+            if (!makesCalls && !assigned.contains(arg)) {
+                kept.put(arg, regs.get(i));
+                continue;
+            }
+            locals.put(arg, stackSize);
+            stackSize += numBytes(arg.type());
+            reserved += numBytes(arg.type());
+            homed.add(arg);
+            homeRegisters.add(regs.get(i));
+        }
+    }
+    
+    // Whether call passes any argument on the stack
+    private static boolean pushes(ast.Call call, boolean registerArguments)
+    {
+        TypeList types = ((FuncType) call.function().type()).arguments();
+        return registerArguments ? argumentRegisters(types).contains(null) : types.iterator().hasNext();
     }
     
     public String name()
@@ -75,6 +230,16 @@ public class ActivationRecord
         return func.symbol().name();
     }
     
+    public Symbol symbol()
+    {
+        return func.symbol();
+    }
+    
+    public List<Symbol> parameters()
+    {
+        return func.arguments();
+    }
+    
     public ActivationRecord parent()
     {
         return parent;
@@ -85,6 +250,82 @@ public class ActivationRecord
         return stackSize;
     }
     
+    // Whether the body calls a function, which overwrites $ra
+    public boolean makesCalls()
+    {
+        return makesCalls;
+    }
+    
+    public boolean isTailCall(ast.Call call)
+    {
+        return tailCallSites.contains(call);
+    }
+    
+    // Whether the function ends with a call to itself
+    public boolean hasSelfTailCall()
+    {
+        return selfTailCall;
+    }
+    
+    // Whether a call in the body pushes arguments, which moves $sp
+    public boolean pushesArguments()
+    {
+        return pushesArguments;
+    }
+    
+    // Addresses the frame off $sp instead of $fp, which is then left alone.
+    // Only for a body that does not move $sp once the prologue is done.
+    public void omitFramePointer()
+    {
+        framePointer = false;
+    }
+    
+    // Whether the frame sets up and addresses off $fp
+    public boolean usesFramePointer()
+    {
+        return framePointer && (reserved + declared > 0 || !arguments.isEmpty());
+    }
+    
+    // The bytes the prologue takes off $sp: the saved $fp and $ra, the words
+    // reserved before the body and its variables, or none if the function
+    // needs none of them
+    public int frameSize()
+    {
+        if (reserved + declared == 0 && !makesCalls && !usesFramePointer())
+            return 0;
+        return fixedFrameSize + reserved + declared;
+    }
+    
+    // The memory operand offset bytes from the $fp of the frame, off $sp
+    // when the frame pointer is omitted
+    Operand slot(int offset)
+    {
+        if (framePointer)
+            return Operand.memory(Register.FP, offset);
+        return Operand.memory(Register.SP, frameSize() + offset);
+    }
+    
+    // Stores the parameters passed in registers to their slots
+    void homeArguments(Program prog)
+    {
+        for (int i=0; i<homed.size(); ++i) {
+            Register reg = homeRegisters.get(i);
+            Opcode store = homed.get(i).type().kind() == Type.Kind.FLOAT ? Opcode.S_S : Opcode.SW;
+            prog.emit(store, reg, locate(homed.get(i)));
+        }
+    }
+    
+    // Reserves count words of the frame for the code generator itself and
+    // returns the $fp offset of the first. Word i is at that offset - 4*i.
+    // Only before the body is generated.
+    public int reserveWords(int count)
+    {
+        int offset = -12 - stackSize;
+        stackSize += 4 * count;
+        reserved += 4 * count;
+        return offset;
+    }
+    
     public void add(Program prog, ast.VariableDeclaration var)
     {
         locals.put(var.symbol(), stackSize);
@@ -94,26 +335,41 @@ public class ActivationRecord
     public void add(Program prog, ast.ArrayDeclaration array)
     {
 //        throw new RuntimeException("implement adding array to local function space");
-        locals.put(array.symbol(), stackSize);
+        // elements are indexed upwards from the base, the lowest word of the array
         stackSize += numBytes(array.symbol().type());
+        locals.put(array.symbol(), stackSize - 4);
     }
     
-    public Integer getAddress(Program prog, String reg, Symbol sym)
+    // The memory operand holding sym, off($fp) for a local or parameter, the
+    // register for a parameter that stays in one, or null if sym is not in
+    // scope
+    Operand locate(Symbol sym)
     {
 //        throw new RuntimeException("implement accessing address of local or parameter symbol");
+        Operand operand = locateInFrame(sym);
+        if (operand != null) {
+            return operand;
+        }
+        if (parent != null) {
+            return parent.locate(sym);
+        }
+        return null;
+    }
+    
+    // The same, but only for the locals and parameters of this frame
+    Operand locateInFrame(Symbol sym)
+    {
+        Register reg = kept.get(sym);
+        if (reg != null) {
+            return Operand.register(reg);
+        }
         Integer address = locals.get(sym);
         if (address != null) {
-            prog.appendInstruction("la  \t"+reg+", "+String.valueOf(-12-address)+"($fp)");
-            return address;
+            return slot(-12-address);
         }
-
         address = arguments.get(sym);
         if (address != null) {
-            prog.appendInstruction("la  \t"+reg+", "+String.valueOf(address)+"($fp)");
-            return address;
-        }
-        if (parent != null) {
-            return parent.getAddress(prog, reg, sym);
+            return slot(address);
         }
         return null;
     }
@@ -150,12 +406,12 @@ class GlobalFrame extends ActivationRecord
         prog.appendData(name+":\t\t.space\t"+numBytes(array.symbol().type()));
     }
         
+    // Globals are addressed by their label
     @Override
-    public Integer getAddress(Program prog, String reg, Symbol sym)
+    Operand locate(Symbol sym)
     {
         if (dataAddr.contains(sym.name())) {
-            prog.appendInstruction("la  \t"+reg+", "+mangleDataname(sym.name()));
-            return 0;
+            return Operand.memory(mangleDataname(sym.name()), 0, null);
         }
         return null;
     }
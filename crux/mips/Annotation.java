@@ -0,0 +1,8 @@
+package mips;
+
+// How much of the AST CodeGen marks in the assembly with comments
+public enum Annotation {
+    NONE,       // no comments
+    STATEMENT,  // begin and end of every declaration and statement
+    NODE        // begin and end of every node
+}
@@ -0,0 +1,81 @@
+package mips;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes assembly text through a byte buffer that goes out to a channel
+// whenever it fills up. Assembly is plain ASCII, so characters are stored
+// as bytes directly instead of going through an encoder.
+public class AsmWriter implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    // reused to format one instruction at a time
+    private final StringBuilder line = new StringBuilder();
+
+    public AsmWriter(Path path) throws IOException
+    {
+        this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_BUFFER_SIZE);
+    }
+
+    public AsmWriter(WritableByteChannel channel)
+    {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AsmWriter(WritableByteChannel channel, int bufferSize)
+    {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    public void println(CharSequence text) throws IOException
+    {
+        for (int i = 0; i < text.length(); i++)
+            put(text.charAt(i));
+        put('\n');
+    }
+
+    void println(Instruction instr) throws IOException
+    {
+        line.setLength(0);
+        instr.appendTo(line);
+        println(line);
+    }
+
+    void println(Fragment fragment) throws IOException
+    {
+        for (int i = 0; i < fragment.size(); i++)
+            println(fragment.get(i));
+    }
+
+    private void put(char c) throws IOException
+    {
+        if (!buffer.hasRemaining())
+            flush();
+        buffer.put(c < 0x80 ? (byte) c : (byte) '?');
+    }
+
+    public void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        channel.close();
+    }
+}
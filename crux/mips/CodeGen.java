@@ -1,5 +1,16 @@
 package mips;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import ast.*;
 import types.*;
 
@@ -9,11 +20,90 @@ public class CodeGen implements ast.CommandVisitor {
     private TypeChecker tc;
     private Program program;
     private ActivationRecord currentFunction;
+    private Stack<String[]> blockLabels = new Stack<>();
+    // the tests of the loops being generated, set aside to go after the body
+    private Stack<Fragment> loopTests = new Stack<>();
+    private String epilogue;
+    private boolean epilogueUsed;
+    private HashMap<Command, Jump> jumps = new HashMap<>();
+    private boolean allocateRegisters;
+    private boolean stackSlots;
+    private boolean registerArguments;
+    private boolean tailCalls;
+    // where a call of the function to itself in tail position jumps to
+    private String entry;
+    // the inlined calls being generated and the labels after them, innermost first
+    private ArrayDeque<InlinedCall> inlinedCalls = new ArrayDeque<>();
+    private ArrayDeque<String> continuations = new ArrayDeque<>();
+    private Selector selector;
+    private RegisterAllocator registers;
+    private int spillBase;
+    private int saveBase;
+    private int threads;
+    private Annotation annotation = Annotation.NODE;
 
     public CodeGen(TypeChecker tc)
+    {
+        this(tc, false);
+    }
+
+    // With allocateRegisters, expression values are kept in registers
+    // instead of being pushed on the stack
+    public CodeGen(TypeChecker tc, boolean allocateRegisters)
+    {
+        this(tc, allocateRegisters, 1);
+    }
+
+    // Functions are generated on up to threads threads; the program is the
+    // same for any number of them
+    public CodeGen(TypeChecker tc, boolean allocateRegisters, int threads)
     {
         this.tc = tc;
         this.program = new Program();
+        this.allocateRegisters = allocateRegisters;
+        this.threads = threads;
+    }
+
+    // Generates one top level declaration of parent's program into a
+    // program of its own
+    private CodeGen(CodeGen parent)
+    {
+        this.tc = parent.tc;
+        this.program = new Program();
+        this.allocateRegisters = parent.allocateRegisters;
+        this.stackSlots = parent.stackSlots;
+        this.registerArguments = parent.registerArguments;
+        this.tailCalls = parent.tailCalls;
+        this.threads = 1;
+        this.annotation = parent.annotation;
+        this.currentFunction = parent.currentFunction;
+    }
+
+    public void setAnnotation(Annotation annotation)
+    {
+        this.annotation = annotation;
+    }
+
+    // With stackSlots, and without allocateRegisters, expression values go
+    // to slots the frame reserves for them instead of being pushed
+    public void setStackSlots(boolean stackSlots)
+    {
+        this.stackSlots = stackSlots;
+    }
+
+    // With registerArguments, calls pass their first arguments in registers
+    // instead of on the stack, see ActivationRecord.argumentRegisters
+    public void setRegisterArguments(boolean registerArguments)
+    {
+        this.registerArguments = registerArguments;
+        program.setRegisterArguments(registerArguments);
+    }
+
+    // With tailCalls, a call a function returns the value of reuses its
+    // frame, see ActivationRecord.isTailCall
+    public void setTailCalls(boolean tailCalls)
+    {
+        this.tailCalls = tailCalls;
     }
     
     public boolean hasError()
@@ -34,12 +124,86 @@ public class CodeGen implements ast.CommandVisitor {
         }
     }
     
+    // Each top level declaration is generated into a program of its own and
+    // the parts are merged in declaration order, each one as soon as it and
+    // all the ones before it are done. The global data is laid out first, so
+    // that while functions are generated the global frame is only ever read.
     public void generate(Command ast)
+    {
+        currentFunction = ActivationRecord.newGlobalFrame();
+        annotate("begin", ast, false);
+
+        DeclarationList declarations = (DeclarationList) ast;
+        CodeGen[] parts = new CodeGen[declarations.childCount()];
+        for (int i = 0; i < parts.length; i++) {
+            if (declarations.child(i).kind() != Command.Kind.FUNCTION_DEFINITION) {
+                parts[i] = new CodeGen(this);
+                parts[i].generatePart(declarations.child(i));
+                program.mergeData(parts[i].program);
+            }
+        }
+
+        if (threads > 1) {
+            generateParallel(declarations, parts);
+        } else {
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] == null) {
+                    parts[i] = new CodeGen(this);
+                    parts[i].generatePart(declarations.child(i));
+                }
+                merge(parts[i]);
+                parts[i] = null;
+            }
+        }
+        annotate("end", ast, false);
+    }
+
+    // At most twice as many functions as there are threads are in flight,
+    // so finished ones do not pile up while waiting for an earlier one
+    private void generateParallel(DeclarationList declarations, CodeGen[] parts)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayDeque<Future<CodeGen>> pending = new ArrayDeque<>();
+            int next = 0;
+            for (int i = 0; i < parts.length; i++) {
+                for (; next < parts.length && pending.size() < 2 * threads; next++) {
+                    if (parts[next] != null) {
+                        pending.add(CompletableFuture.completedFuture(parts[next]));
+                        continue;
+                    }
+                    Command function = declarations.child(next);
+                    pending.add(pool.submit(() -> {
+                        CodeGen part = new CodeGen(this);
+                        part.generatePart(function);
+                        return part;
+                    }));
+                }
+                merge(pending.remove().get());
+                parts[i] = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void merge(CodeGen part)
+    {
+        program.merge(part.program);
+        errorBuffer.append(part.errorBuffer);
+    }
+
+    private void generatePart(Command declaration)
     {
         try {
-            currentFunction = ActivationRecord.newGlobalFrame();
-            ast.accept(this);
-            hasError();
+            new Walker().walk(declaration);
         } catch (CodeGenException e) {
         }
     }
@@ -49,458 +213,780 @@ public class CodeGen implements ast.CommandVisitor {
         return program;
     }
 
-    private void printHelper(String prefix, ast.Command node) {
-        program.appendInstruction("\t\t\t# "+prefix+" "+node.toString());
+    // A comment marking where the code of node begins or ends, if the
+    // annotation level asks for one
+    private void annotate(String prefix, Command node, boolean statement) {
+        if (annotation == Annotation.NODE || (statement && annotation == Annotation.STATEMENT))
+            program.appendComment(prefix, node);
     }
 
-    @Override
-    public void visit(ExpressionList node) {
-        printHelper("begin", node);
+    // A condition jumps to label when its value is when, and otherwise
+    // falls through. skip is a label of its own an and/or may need.
+    private static class Jump
+    {
+        final String label;
+        final boolean when;
+        String skip;
+
+        Jump(String label, boolean when)
+        {
+            this.label = label;
+            this.when = when;
+        }
+    }
 
-        for (Expression expression : node) {
-            expression.accept(this);
+    // Expression values live on the stack, or in the registers and spill
+    // slots chosen by the RegisterAllocator when one is in use. Operands are
+    // fetched last one first, which is the order they come off the stack.
+
+    // Register holding the value of operand, loaded into scratch if need be
+    private Register fetchInt(Expression operand, Register scratch) {
+        if (registers == null) {
+            program.popInt(scratch);
+            return scratch;
         }
-        printHelper("end", node);
+        Register reg = registers.register((Command) operand);
+        if (reg != null)
+            return reg;
+        program.emit(Opcode.LW, scratch, spillSlot((Command) operand));
+        return scratch;
+    }
 
+    private Register fetchFloat(Expression operand, Register scratch) {
+        if (registers == null) {
+            program.popFloat(scratch);
+            return scratch;
+        }
+        Register reg = registers.register((Command) operand);
+        if (reg != null)
+            return reg;
+        program.emit(Opcode.L_S, scratch, spillSlot((Command) operand));
+        return scratch;
+    }
+
+    // Register to compute the value of node into
+    private Register target(Command node, Register scratch) {
+        if (registers == null)
+            return scratch;
+        Register reg = registers.register(node);
+        return reg != null ? reg : scratch;
+    }
+
+    // Hands the value of node, computed into reg, on to its consumer
+    private void commitInt(Command node, Register reg) {
+        if (registers == null)
+            program.pushInt(reg);
+        else if (registers.slot(node) >= 0)
+            program.emit(Opcode.SW, reg, spillSlot(node));
+    }
+
+    private void commitFloat(Command node, Register reg) {
+        if (registers == null)
+            program.pushFloat(reg);
+        else if (registers.slot(node) >= 0)
+            program.emit(Opcode.S_S, reg, spillSlot(node));
+    }
+
+    // $fp offset of the spill slot of node
+    private Operand spillSlot(Command node) {
+        return currentFunction.slot(spillBase - 4*registers.slot(node));
+    }
+
+    // Registers the operands of a rule are fetched into, in the order the
+    // operands are computed
+    private static final Register[] INT_SCRATCH = {
+        Register.T0, Register.T1, Register.T2, Register.T3, Register.T5, Register.V1
+    };
+    private static final Register[] FLOAT_SCRATCH = {
+        Register.F0, Register.F1, Register.F2, Register.F3
+    };
+
+    // Generates node with the rule the Selector chose for it, unless its
+    // code is part of that of its consumer
+    private void select(Command node) {
+        Selector.Goal goal = selector.goal(node);
+        if (goal == null)
+            return;
+        List<Command> operands = selector.operands(node);
+        Register[] scratch = new Register[operands.size()];
+        int ints = 0;
+        int floats = 0;
+        for (int i = 0; i < scratch.length; i++) {
+            boolean isFloat = selector.goal(operands.get(i)) == Selector.Goal.FREG;
+            if ((isFloat ? floats : ints) == (isFloat ? FLOAT_SCRATCH : INT_SCRATCH).length)
+                throw new RuntimeException("Too many operands in " + node);
+            scratch[i] = isFloat ? FLOAT_SCRATCH[floats++] : INT_SCRATCH[ints++];
+        }
+        HashMap<Command, Operand> values = new HashMap<>();
+        for (int i = scratch.length - 1; i >= 0; i--) {
+            Expression operand = (Expression) operands.get(i);
+            Register reg = scratch[i].isFloat() ? fetchFloat(operand, scratch[i]) : fetchInt(operand, scratch[i]);
+            values.put(operands.get(i), Operand.register(reg));
+        }
+
+        switch (goal) {
+            case REG: {
+                Register dst = target(node, Register.T0);
+                selector.emit(program, currentFunction, node, values, dst);
+                commitInt(node, dst);
+                break;
+            }
+            case FREG: {
+                Register dst = target(node, Register.F0);
+                selector.emit(program, currentFunction, node, values, dst);
+                commitFloat(node, dst);
+                break;
+            }
+            default:
+                selector.emit(program, currentFunction, node, values, null);
+                break;
+        }
     }
 
-    @Override
-    public void visit(DeclarationList node) {
-        printHelper("begin", node);
-        for (Declaration declaration : node) {
-            declaration.accept(this);
+    // Stores (or with load, reloads) the callee-saved registers in use
+    private void saveRegisters(boolean load) {
+        int offset = saveBase;
+        for (Register reg : registers.savedRegisters()) {
+            Opcode op = reg.isFloat() ? (load ? Opcode.L_S : Opcode.S_S) : (load ? Opcode.LW : Opcode.SW);
+            program.emit(op, reg, currentFunction.slot(offset));
+            offset -= 4;
         }
-//        program.appendExitSequence();
-        printHelper("end", node);
     }
 
-    @Override
-    public void visit(StatementList node) {
-        printHelper("begin", node);
-        for (Statement statement : node) {
-            statement.accept(this);
-            if (statement instanceof Call) {
-                Type t = tc.getType((Command) statement);
-                if (t instanceof IntType)
-                    program.popInt("$t0");
-                else if (t instanceof FloatType)
-                    program.popFloat("$f0");
+    // Code is emitted in evaluation order: control flow labels on the way
+    // down (pre), branches between children (in) and the instructions that
+    // consume the children's values on the way up (post, via visit).
+    // Every instruction takes its origin from the node it is emitted for.
+    private class Walker extends TreeWalker
+    {
+        // the nodes being walked, innermost first
+        private final ArrayDeque<Command> path = new ArrayDeque<>();
+
+        @Override
+        protected boolean pre(Command node)
+        {
+            program.setOrigin(node.start());
+            annotate("begin", node, isStatement());
+            path.push(node);
+            switch (node.kind()) {
+                case FUNCTION_DEFINITION:
+                    enter((FunctionDefinition) node);
+                    break;
+                case IF_ELSE_BRANCH:
+                    enter((IfElseBranch) node);
+                    break;
+                case WHILE_LOOP:
+                    enter((WhileLoop) node);
+                    break;
+                case INLINED_CALL:
+                    inlinedCalls.push((InlinedCall) node);
+                    continuations.push(program.newLabel());
+                    break;
+                case LOGICAL_AND:
+                case LOGICAL_OR:
+                    enterLogical(node);
+                    break;
+                case LOGICAL_NOT:
+                    if (jumps.containsKey(node)) {
+                        Jump jump = jumps.get(node);
+                        jumps.put(node.child(0), new Jump(jump.label, !jump.when));
+                    }
+                    break;
+                default:
+                    break;
             }
+            return true;
+        }
+
+        @Override
+        protected void in(Command node, int index)
+        {
+            program.setOrigin(node.start());
+            switch (node.kind()) {
+                case STATEMENT_LIST:
+                    discardResult(node.child(index));
+                    break;
+                case IF_ELSE_BRANCH:
+                    between((IfElseBranch) node, index);
+                    break;
+                case WHILE_LOOP:
+                    between((WhileLoop) node, index);
+                    break;
+                case LOGICAL_AND:
+                case LOGICAL_OR:
+                    if (!jumps.containsKey(node))
+                        between(node, index);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        protected void post(Command node)
+        {
+            path.pop();
+            program.setOrigin(node.start());
+            Jump jump = jumps.remove(node);
+            if (jump != null)
+                branch(node, jump);
+            else
+                Dispatch.visit(node, CodeGen.this);
+            annotate("end", node, isStatement());
+        }
+
+        // Whether the node about to be entered or just left is a top level
+        // declaration or an entry of a statement list
+        private boolean isStatement()
+        {
+            Command parent = path.peek();
+            return parent == null || parent.kind() == Command.Kind.STATEMENT_LIST
+                    || parent.kind() == Command.Kind.DECLARATION_LIST;
         }
-        printHelper("end", node);
     }
 
-    @Override
-    public void visit(AddressOf node) {
-        printHelper("begin", node);
+    private void enter(FunctionDefinition node) {
+        currentFunction = new ActivationRecord(node, currentFunction, registerArguments, tailCalls);
 
-        Integer offset = currentFunction.getAddress(program,"$t0", node.symbol());
-        if (offset == null) {
-            throw new RuntimeException("AddressOf: Should never happened");
+        String prefix = !node.symbol().name().equals("main") ? "func." : "";
+        program.beginFragment(prefix + node.symbol().name() + ".label");
+        program.appendLabel(prefix + node.symbol().name());
+        epilogue = prefix + node.symbol().name() + ".epilogue";
+        epilogueUsed = false;
+
+        // Expression values in registers or slots leave $sp alone, and
+        // unless a call pushes arguments the frame is addressed off $sp.
+        // $fp is then one more callee-saved register to allocate.
+        selector = new Selector(tc, node);
+        if (allocateRegisters || stackSlots) {
+            boolean omitFramePointer = !currentFunction.pushesArguments();
+            if (omitFramePointer)
+                currentFunction.omitFramePointer();
+            registers = new RegisterAllocator(node, selector, allocateRegisters, omitFramePointer);
+            spillBase = currentFunction.reserveWords(registers.slotCount());
+            saveBase = currentFunction.reserveWords(registers.savedRegisters().size());
+        }
+        program.appendPrologue(currentFunction.frameSize(), currentFunction.makesCalls(),
+                currentFunction.usesFramePointer());
+        currentFunction.homeArguments(program);
+        if (registers != null)
+            saveRegisters(false);
+        entry = null;
+        if (currentFunction.hasSelfTailCall()) {
+            entry = program.newLabel();
+            program.appendLabel(entry);
         }
-        program.pushInt("$t0");
+    }
 
-        printHelper("end", node);
+    // Without an else block the condition jumps straight to the end
+    private void enter(IfElseBranch node) {
+        final String ending = program.newLabel();
+        final String elseBranch = node.elseBlock().childCount() > 0 ? program.newLabel() : null;
+        blockLabels.push(new String[] { elseBranch, ending });
+        jumps.put((Command) node.condition(), new Jump(elseBranch != null ? elseBranch : ending, false));
+    }
+
+    // Loops are laid out with the test after the body, so that an iteration
+    // takes one branch back to the top. The test is generated first, as it
+    // comes first in the tree, but set aside until the body is done.
+    private void enter(WhileLoop node) {
+        String body = program.newLabel();
+        String test = program.newLabel();
+        blockLabels.push(new String[] { body, test });
+        jumps.put((Command) node.condition(), new Jump(body, true));
+
+        program.emit(Opcode.J, test);
+        program.divert();
+    }
+
+    // An and/or that is a condition passes jumps on to its operands. The
+    // left one decides the value on its own when it is true for or, false
+    // for and; if that is not the value the jump is taken for, it skips the
+    // right operand instead. As a value, an and/or skips its right operand
+    // the same way and then materializes the result.
+    private void enterLogical(Command node) {
+        boolean decisive = node.kind() == Command.Kind.LOGICAL_OR;
+        Jump jump = jumps.get(node);
+        if (jump == null) {
+            blockLabels.push(new String[] { program.newLabel(), program.newLabel() });
+            return;
+        }
+        if (jump.when == decisive) {
+            jumps.put(node.child(0), new Jump(jump.label, jump.when));
+        } else {
+            jump.skip = program.newLabel();
+            jumps.put(node.child(0), new Jump(jump.skip, decisive));
+        }
+        jumps.put(node.child(1), new Jump(jump.label, jump.when));
+    }
+
+    // A call used as a statement leaves its return value on the stack
+    private void discardResult(Command statement) {
+        if (statement.kind() != Command.Kind.CALL || registers != null)
+            return;
+        switch (tc.getType(statement).kind()) {
+            case INT:
+            case BOOL:
+                program.popInt(Register.T0);
+                break;
+            case FLOAT:
+                program.popFloat(Register.F0);
+                break;
+            default:
+                break;
+        }
     }
 
-    @Override
-    public void visit(LiteralBool node) {
-        printHelper("begin", node);
+    // The condition has already jumped to the else branch when it is false
+    private void between(IfElseBranch node, int index) {
+        String[] labels = blockLabels.peek();
+        if (index == 1 && labels[0] != null) {
+            program.emit(Opcode.J, labels[1]);
+            program.appendLabel(labels[0]);
+        }
+    }
 
-        String instruction = "li  \t$t0, " +
-                (node.value() == LiteralBool.Value.TRUE ? "1" : "0");
-        program.appendInstruction(instruction);
-        program.pushInt("$t0");
+    private void between(WhileLoop node, int index) {
+        if (index == 0) {
+            loopTests.push(program.resume());
+            program.appendLabel(blockLabels.peek()[0]);
+        }
+    }
 
-        printHelper("end", node);
+    // The left operand of an and/or value skips the right one if it decides
+    private void between(Command node, int index) {
+        if (index == 0) {
+            Register left = fetchInt((Expression) node.child(0), Register.T0);
+            Opcode op = node.kind() == Command.Kind.LOGICAL_OR ? Opcode.BNEZ : Opcode.BEQZ;
+            program.emit(op, left, blockLabels.peek()[0]);
+        }
+    }
 
+    // Code for a node that is a condition: no value, just the jump
+    private void branch(Command node, Jump jump) {
+        // a condition the Selector computes as a value is tested for zero
+        if (selector.goal(node) != null) {
+            Dispatch.visit(node, this);
+            Register value = fetchInt((Expression) node, Register.T0);
+            program.emit(jump.when ? Opcode.BNEZ : Opcode.BEQZ, value, jump.label);
+            return;
+        }
+        switch (node.kind()) {
+            case LOGICAL_AND:
+            case LOGICAL_OR:
+                if (jump.skip != null)
+                    program.appendLabel(jump.skip);
+                break;
+            case LOGICAL_NOT:
+                break;
+            case LITERAL_BOOL:
+                if ((((LiteralBool) node).value() == LiteralBool.Value.TRUE) == jump.when)
+                    program.emit(Opcode.J, jump.label);
+                break;
+            default:
+                compareAndBranch((Comparison) node, jump);
+                break;
+        }
     }
 
+
     @Override
-    public void visit(LiteralFloat node) {
-        printHelper("begin", node);
+    public void visit(ExpressionList node) {
+    }
 
-        program.appendInstruction("li.s\t$f0, "+node.value());
-        program.pushFloat("$f0");
+    @Override
+    public void visit(DeclarationList node) {
+//        program.appendExitSequence();
+    }
 
-        printHelper("end", node);
+    @Override
+    public void visit(StatementList node) {
     }
 
     @Override
-    public void visit(LiteralInt node) {
-        printHelper("begin", node);
+    public void visit(AddressOf node) {
+        select(node);
+    }
+
+    @Override
+    public void visit(LiteralBool node) {
+        select(node);
+    }
 
-        program.appendInstruction("li  \t$t0, "+node.value());
-        program.pushInt("$t0");
+    @Override
+    public void visit(LiteralFloat node) {
+        select(node);
+    }
 
-        printHelper("end", node);
+    @Override
+    public void visit(LiteralInt node) {
+        select(node);
     }
 
     @Override
     public void visit(VariableDeclaration node) {
-        printHelper("begin", node);
         currentFunction.add(program, node);
-        printHelper("end", node);
     }
 
     @Override
     public void visit(ArrayDeclaration node) {
-        printHelper("begin", node);
         currentFunction.add(program, node);
-        printHelper("end", node);
     }
 
     @Override
     public void visit(FunctionDefinition node) {
-        printHelper("begin", node);
-        currentFunction = new ActivationRecord(node, currentFunction);
-
-        String prefix = !node.symbol().name().equals("main") ? "func." : "";
-        String instruction = prefix + node.symbol().name() + ":";
-        int pos = program.appendInstruction(instruction);
-
-
-        node.body().accept(this);
-        program.insertPrologue(pos+1, currentFunction.stackSize());
-
-        String epilogue = prefix+node.symbol().name()+".epilogue:";
-        program.appendInstruction(epilogue);
-        program.appendEpilogue(currentFunction.stackSize());
+        if (epilogueUsed)
+            program.appendLabel(epilogue);
+        if (registers != null) {
+            saveRegisters(true);
+            registers = null;
+        }
+        program.appendEpilogue(currentFunction.frameSize(), currentFunction.makesCalls(),
+                currentFunction.usesFramePointer());
         currentFunction = currentFunction.parent();
-        printHelper("end", node);
     }
 
     @Override
     public void visit(Addition node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-
-        Type current = tc.getType(node);
-        if (current instanceof IntType) {
-            program.popInt("$t1");
-            program.popInt("$t0");
-            program.appendInstruction("addu\t$t0, $t1, $t0");
-            program.pushInt("$t0");
-        } else {
-            program.popFloat("$f1");
-            program.popFloat("$f0");
-            program.appendInstruction("add.s\t$f0, $f1, $f0");
-            program.pushFloat("$f0");
-        }
-        printHelper("end", node);
+        select(node);
     }
 
     @Override
     public void visit(Subtraction node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-
-        Type current = tc.getType(node);
-        if (current instanceof IntType) {
-            program.popInt("$t1");
-            program.popInt("$t0");
-            program.appendInstruction("subu\t$t0, $t1, $t0");
-            program.pushInt("$t0");
-        } else {
-            program.popFloat("$f1");
-            program.popFloat("$f0");
-            program.appendInstruction("sub.s\t$f0, $f1, $f0");
-            program.pushFloat("$f0");
-        }
-        printHelper("end", node);
+        select(node);
     }
 
     @Override
     public void visit(Multiplication node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-        Type current = tc.getType(node);
-        if (current instanceof IntType) {
-            program.popInt("$t1");
-            program.popInt("$t0");
-            program.appendInstruction("mult\t$t0, $t1");
-            program.appendInstruction("mflo\t$t2");
-            program.pushInt("$t2");
-        } else {
-            program.popFloat("$f1");
-            program.popFloat("$f0");
-            program.appendInstruction("mul.s\t$f0, $f1, $f0");
-            program.pushFloat("$f0");
-        }
-        printHelper("end", node);
+        select(node);
     }
 
     @Override
     public void visit(Division node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-        Type current = tc.getType(node);
-        if (current instanceof IntType) {
-            program.popInt("$t1");
-            program.popInt("$t0");
-            program.appendInstruction("div \t$t0, $t1");
-            program.appendInstruction("mflo\t$t2");
-            program.pushInt("$t2");
-        } else {
-            program.popFloat("$f1");
-            program.popFloat("$f0");
-            program.appendInstruction("div.s\t$f0, $f1, $f0");
-            program.pushFloat("$f0");
-        }
-        printHelper("end", node);    }
+        select(node);
+    }
 
     @Override
     public void visit(LogicalAnd node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-        program.popInt("$t1");
-        program.popInt("$t0");
-
-        program.appendInstruction("and \t$t2, $t0, $t1");
-        program.pushInt("$t2");
-        printHelper("end", node);
-//        throw new RuntimeException("Implement this");
+        shortCircuit(node, node.rightSide(), 0);
     }
 
     @Override
     public void visit(LogicalOr node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-        program.popInt("$t0");
-        program.popInt("$t1");
-
-        program.popInt("or  \t $t2, $t0, $t1");
-        program.pushInt("$t2");
-
-        printHelper("end", node);
+        shortCircuit(node, node.rightSide(), 1);
+    }
+
+    // Past the right operand its value is the result; the left one jumped
+    // to the first label when it decided the result is shortValue
+    private void shortCircuit(Command node, Expression right, int shortValue) {
+        String[] labels = blockLabels.pop();
+        Register dst = target(node, Register.T1);
+        // on the stack the right operand's value already is in place
+        if (registers != null) {
+            Register value = fetchInt(right, dst);
+            if (value != dst)
+                program.emit(Opcode.MOVE, dst, value);
+            commitInt(node, dst);
+        }
+        program.emit(Opcode.J, labels[1]);
+        program.appendLabel(labels[0]);
+        program.emit(Opcode.LI, dst, shortValue);
+        commitInt(node, dst);
+        program.appendLabel(labels[1]);
     }
     
     @Override
     public void visit(LogicalNot node) {
-        printHelper("begin", node);
-
-        node.expression().accept(this);
-        program.popInt("$t0");
-
-        program.appendInstruction("slti\t $t1, $t0, 1");
-        program.pushInt("$t1");
-
-        printHelper("end", node);
+        select(node);
     }
 
     @Override
     public void visit(Comparison node) {
-        printHelper("begin", node);
-
-        node.rightSide().accept(this);
-        node.leftSide().accept(this);
-
-
-        if (tc.getType((Command) node.leftSide()) instanceof IntType) {
-            program.popInt("$t0");
-            program.popInt("$t1");
-
-            program.appendInstruction("slt \t$t2, $t0, $t1");
-            program.appendInstruction("xor \t$t3, $t0, $t1");
-            program.appendInstruction("slti\t$t3, $t3, 1");
-
-            switch (node.operation()) {
-                case LT:
-                    program.appendInstruction("addi\t$t5, $t2, 0");
-                    break;
-                case LE:
-                    program.appendInstruction("or  \t$t5, $t2, $t3");
-                    break;
-                case EQ:
-                    program.appendInstruction("addi\t$t5, $t3, 0");
-                    break;
-                case GE:
-                    program.appendInstruction("slti\t$t5, $t2, 1");
-                    break;
-                case GT:
-                    program.appendInstruction("add \t$t5, $t2, $t3");
-                    program.appendInstruction("slti\t$t5, $t5, 1");
-                    break;
-                case NE:
-                    program.appendInstruction("slti\t$t5, $t3, 1");
-                    break;
-            }
-            program.pushInt("$t5");
-        } else if (tc.getType((Command) node.leftSide()) instanceof FloatType) {
-            program.popFloat("$f0");
-            program.popFloat("$f1");
-            switch (node.operation()) {
-                case LT:
-                    program.appendInstruction("c.lt.s\t$f0, $f1");
-                    break;
-                case LE:
-                    program.appendInstruction("c.le.s\t$f0, $f1");
-                    break;
-                case EQ:
-                    program.appendInstruction("c.eq.s\t$f0, $f1");
-                    break;
-                case GE:
-                    program.appendInstruction("c.ge.s\t$f0, $f1");
-                    break;
-                case GT:
-                    program.appendInstruction("c.gt.s\t$f0, $f1");
-                    break;
-                case NE:
-                    program.appendInstruction("c.ne.s\t$f0, $f1");
-                    break;
-            }
-            String falseLabel = program.newLabel();
-            String ending = program.newLabel();
-            program.appendInstruction("bc1f\t"+falseLabel);
-            program.appendInstruction("addi\t$t0, $zero, 1");
-            program.appendInstruction("j   \t"+ending);
-            program.appendInstruction(falseLabel+":");
-            program.appendInstruction("addi\t$t0, $zero, 0");
-            program.appendInstruction(ending+":");
-            program.pushInt("$t0");
+        select(node);
+    }
+
+    // A comparison that is a condition branches on the operands directly.
+    // Integer comparisons are negated to branch when false, float ones
+    // branch on the flag being clear instead.
+    private void compareAndBranch(Comparison node, Jump jump) {
+        Type.Kind operands = tc.getType((Command) node.leftSide()).kind();
+        if (operands == Type.Kind.INT) {
+            Register rhs = fetchInt(node.rightSide(), Register.T1);
+            Register lhs = fetchInt(node.leftSide(), Register.T0);
+            Comparison.Operation op = node.operation();
+            if (!jump.when)
+                op = negate(op);
+            program.emit(branchOpcode(op), lhs, rhs, jump.label);
+        } else if (operands == Type.Kind.FLOAT) {
+            Register rhs = fetchFloat(node.rightSide(), Register.F1);
+            Register lhs = fetchFloat(node.leftSide(), Register.F0);
+            boolean flagMeansTrue = Selector.compareFloats(program, node.operation(), lhs, rhs);
+            program.emit(flagMeansTrue == jump.when ? Opcode.BC1T : Opcode.BC1F, jump.label);
         } else
             throw new RuntimeException();
-        printHelper("end", node);
     }
 
-    @Override
-    public void visit(Dereference node) {
-        printHelper("begin", node);
+    static Comparison.Operation negate(Comparison.Operation op) {
+        switch (op) {
+            case LT:
+                return Comparison.Operation.GE;
+            case LE:
+                return Comparison.Operation.GT;
+            case EQ:
+                return Comparison.Operation.NE;
+            case NE:
+                return Comparison.Operation.EQ;
+            case GE:
+                return Comparison.Operation.LT;
+            default:
+                return Comparison.Operation.LE;
+        }
+    }
 
-        node.expression().accept(this);
-        program.popInt("$t0");
-        if (tc.getType(node) instanceof IntType) {
-            program.appendInstruction("lw  \t$t1,($t0)");
-            program.pushInt("$t1");
-        } else if (tc.getType(node) instanceof FloatType) {
-            program.appendInstruction("l.s \t$f0, ($t0)");
-            program.pushFloat("$f0");
+    static Opcode branchOpcode(Comparison.Operation op) {
+        switch (op) {
+            case LT:
+                return Opcode.BLT;
+            case LE:
+                return Opcode.BLE;
+            case EQ:
+                return Opcode.BEQ;
+            case NE:
+                return Opcode.BNE;
+            case GE:
+                return Opcode.BGE;
+            default:
+                return Opcode.BGT;
         }
+    }
 
-        printHelper("end", node);
+    @Override
+    public void visit(Dereference node) {
+        select(node);
     }
 
     @Override
     public void visit(Index node) {
-        printHelper("begin", node);
-
-        node.amount().accept(this);
-        node.base().accept(this);
-        program.popInt("$t1");
-        program.popInt("$t0");
-
-
-        program.appendInstruction("sll \t$t0, $t0, 2");
-        program.appendInstruction("add \t$t1, $t0, $t1");
-        program.pushInt("$t1");
-
-        printHelper("end", node);
-//        throw new RuntimeException("Implement this");
+        select(node);
     }
 
     @Override
     public void visit(Assignment node) {
-        printHelper("begin", node);
-
-        node.source().accept(this);
-        node.destination().accept(this);
-
-        program.popInt("$t1");
-        Type src = tc.getType((Command) node.source());
-        if (src instanceof IntType) {
-            program.popInt("$t0");
-            program.appendInstruction("sw  \t$t0, 0($t1)");
-        } else if (src instanceof FloatType) {
-            program.popFloat("$f0");
-            program.appendInstruction("s.s \t$f0, 0($t1)");
-        } else
-            throw new RuntimeException("Wrong type");
-
-        printHelper("end", node);
+        select(node);
     }
 
     @Override
     public void visit(Call node) {
-        printHelper("begin", node);
-        node.arguments().accept(this);
-
-        program.appendInstruction("jal \tfunc."+node.function().name());
-
+        if (currentFunction.isTailCall(node)) {
+            tailCall(node);
+            return;
+        }
         FuncType funcType = (FuncType) node.function().type();
-        program.appendInstruction("addi\t$sp, $sp, "+ActivationRecord.numBytes(funcType.arguments()));
-        if (funcType.returnType() instanceof IntType) {
-            program.appendInstruction("subu\t$sp, $sp, 4");
-            program.appendInstruction("sw  \t$v0, 0($sp)");
-        } else if (funcType.returnType() instanceof FloatType) {
-            program.appendInstruction("subu\t$sp, $sp, 4");
-            program.appendInstruction("s.s \t$f0, 0($sp)");
+        List<Register> argRegs = argumentRegisters(node);
+        int popped = registers == null ? pickArguments(node, argRegs) : passArguments(node, argRegs);
+        program.emit(Opcode.JAL, "func."+node.function().name());
+
+        if (popped != 0)
+            program.emit(Opcode.ADDIU, Register.SP, Register.SP, popped);
+        switch (funcType.returnType().kind()) {
+            case INT:
+            case BOOL: {
+                Register dst = target(node, Register.V0);
+                if (dst != Register.V0)
+                    program.emit(Opcode.MOVE, dst, Register.V0);
+                commitInt(node, dst);
+                break;
+            }
+            case FLOAT: {
+                Register dst = target(node, Register.F0);
+                if (dst != Register.F0)
+                    program.emit(Opcode.MOV_S, dst, Register.F0);
+                commitFloat(node, dst);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    // A call to the function itself stores the arguments to the parameters
+    // and jumps back to the top of the body. Any other leaves the frame as
+    // the epilogue does and jumps to the function, which then returns
+    // straight to the caller. Its arguments all go in registers.
+    private void tailCall(Call node) {
+        if (node.function() == currentFunction.symbol()) {
+            List<crux.Symbol> params = currentFunction.parameters();
+            for (int i = params.size() - 1; i >= 0; i--) {
+                Expression arg = (Expression) node.arguments().child(i);
+                Operand home = currentFunction.locateInFrame(params.get(i));
+                boolean isFloat = tc.getType((Command) arg).kind() == Type.Kind.FLOAT;
+                Register value = isFloat ? fetchFloat(arg, Register.F0) : fetchInt(arg, Register.T0);
+                if (home == null)
+                    continue;
+                if (home.memory)
+                    program.emit(isFloat ? Opcode.S_S : Opcode.SW, value, home);
+                else
+                    program.emit(isFloat ? Opcode.MOV_S : Opcode.MOVE, home.register, value);
+            }
+            program.emit(Opcode.J, entry);
+            return;
         }
 
-        printHelper("end", node);
+        List<Register> argRegs = argumentRegisters(node);
+        if (registers == null)
+            pickArguments(node, argRegs);
+        else
+            passArguments(node, argRegs);
+        if (registers != null)
+            saveRegisters(true);
+        program.appendFrameRelease(currentFunction.frameSize(), currentFunction.makesCalls(),
+                currentFunction.usesFramePointer());
+        program.emit(Opcode.J, "func."+node.function().name());
+    }
 
+    // The register each argument of node is passed in, null for the ones
+    // passed on the stack
+    private List<Register> argumentRegisters(Call node) {
+        FuncType funcType = (FuncType) node.function().type();
+        if (registerArguments)
+            return ActivationRecord.argumentRegisters(funcType.arguments());
+        List<Register> regs = new ArrayList<>();
+        for (Expression arg : node.arguments())
+            regs.add(null);
+        return regs;
+    }
+
+    // The arguments of a call are left on the stack, last one on top. If
+    // they are all passed in registers they are popped into them. Otherwise
+    // loads the ones passed in registers and, unless the ones passed on the
+    // stack are on top in order already, pushes copies of those. Returns the
+    // number of bytes to pop after the call.
+    private int pickArguments(Call node, List<Register> argRegs) {
+        ExpressionList args = node.arguments();
+        int last = args.size() - 1;
+        if (!argRegs.contains(null)) {
+            for (int i = last; i >= 0; i--) {
+                if (argRegs.get(i).isFloat())
+                    program.popFloat(argRegs.get(i));
+                else
+                    program.popInt(argRegs.get(i));
+            }
+            return 0;
+        }
+        boolean inPlace = true;
+        for (int i = 1; i < args.size(); i++) {
+            if (argRegs.get(i) != null && argRegs.get(i - 1) == null)
+                inPlace = false;
+        }
+        int copied = 0;
+        for (int i = 0; i < args.size(); i++) {
+            boolean isFloat = tc.getType(args.child(i)).kind() == Type.Kind.FLOAT;
+            int offset = 4 * (last - i + copied);
+            if (argRegs.get(i) != null) {
+                program.emit(isFloat ? Opcode.L_S : Opcode.LW, argRegs.get(i), Register.SP, offset);
+            } else if (!inPlace) {
+                if (isFloat) {
+                    program.emit(Opcode.L_S, Register.F0, Register.SP, offset);
+                    program.pushFloat(Register.F0);
+                } else {
+                    program.emit(Opcode.LW, Register.T0, Register.SP, offset);
+                    program.pushInt(Register.T0);
+                }
+                copied++;
+            }
+        }
+        return 4 * (args.size() + copied);
+    }
+
+    // Pushes the arguments of a call passed on the stack, first one first,
+    // and then moves the others to their registers. Returns the number of
+    // bytes to pop after the call.
+    private int passArguments(Call node, List<Register> argRegs) {
+        ExpressionList args = node.arguments();
+        int pushed = 0;
+        for (int i = 0; i < args.size(); i++) {
+            if (argRegs.get(i) != null)
+                continue;
+            Expression arg = (Expression) args.child(i);
+            if (tc.getType(args.child(i)).kind() == Type.Kind.FLOAT)
+                program.pushFloat(fetchFloat(arg, Register.F0));
+            else
+                program.pushInt(fetchInt(arg, Register.T0));
+            pushed += 4;
+        }
+        for (int i = 0; i < args.size(); i++) {
+            Register reg = argRegs.get(i);
+            if (reg == null)
+                continue;
+            Expression arg = (Expression) args.child(i);
+            if (tc.getType(args.child(i)).kind() == Type.Kind.FLOAT) {
+                Register value = fetchFloat(arg, reg);
+                if (value != reg)
+                    program.emit(Opcode.MOV_S, reg, value);
+            } else {
+                Register value = fetchInt(arg, reg);
+                if (value != reg)
+                    program.emit(Opcode.MOVE, reg, value);
+            }
+        }
+        return pushed;
     }
 
     @Override
     public void visit(IfElseBranch node) {
-        printHelper("begin", node);
-
-        final String thenBranch = program.newLabel();
-        final String elseBranch = program.newLabel();
-        final String ending = program.newLabel();
-        node.condition().accept(this);
-        program.popInt("$t0");
-        program.appendInstruction("beqz\t$t0, "+elseBranch);
-        program.appendInstruction(thenBranch+":");
-        node.thenBlock().accept(this);
-        program.appendInstruction("j   \t"+ending);
-        program.appendInstruction(elseBranch+":");
-        node.elseBlock().accept(this);
-        program.appendInstruction(ending+":");
-
-        printHelper("end", node);
+        String[] labels = blockLabels.pop();
+        program.appendLabel(labels[1]);
     }
 
+    // The test jumps back to the body while it holds and falls out of the
+    // loop otherwise
     @Override
     public void visit(WhileLoop node) {
-        printHelper("begin", node);
-
-        String condition = program.newLabel();
-        String ending = program.newLabel();
-
-        program.appendInstruction(condition+":");
-        node.condition().accept(this);
-        program.popInt("$t0");
-        program.appendInstruction("beqz\t$t0, "+ending);
-
-        node.body().accept(this);
-        program.appendInstruction("j   \t"+condition);
-        program.appendInstruction(ending+":");
-        printHelper("end", node);
+        String[] labels = blockLabels.pop();
+        program.appendLabel(labels[1]);
+        program.append(loopTests.pop());
     }
 
     @Override
     public void visit(Return node) {
-        printHelper("begin", node);
-        node.argument().accept(this);
+        // a tail call has left already
+        if (node.argument() instanceof Call && currentFunction.isTailCall((Call) node.argument()))
+            return;
+        if (!inlinedCalls.isEmpty()) {
+            inlineReturn(node);
+            return;
+        }
         Type returnType = tc.getType((Command) node.argument());
-        if (returnType instanceof FloatType)
-            program.popFloat("$f0");
-        else
-            program.popInt("$v0");
-        program.appendInstruction("j   \tfunc."+currentFunction.name()+".epilogue");
-        printHelper("end", node);
+        if (returnType.kind() == Type.Kind.FLOAT) {
+            Register value = fetchFloat(node.argument(), Register.F0);
+            if (value != Register.F0)
+                program.emit(Opcode.MOV_S, Register.F0, value);
+        } else {
+            Register value = fetchInt(node.argument(), Register.V0);
+            if (value != Register.V0)
+                program.emit(Opcode.MOVE, Register.V0, value);
+        }
+        program.emit(Opcode.J, epilogue);
+        epilogueUsed = true;
+    }
+
+    // A return from an inlined body stores its value to the call's result
+    // and goes on after the body, which it falls into at the end of it
+    private void inlineReturn(Return node) {
+        InlinedCall call = inlinedCalls.peek();
+        boolean isFloat = tc.getType((Command) node.argument()).kind() == Type.Kind.FLOAT;
+        Register value = isFloat ? fetchFloat(node.argument(), Register.F0) : fetchInt(node.argument(), Register.T0);
+        if (call.result() != null)
+            program.emit(isFloat ? Opcode.S_S : Opcode.SW, value, currentFunction.locate(call.result()));
+        StatementList body = call.body();
+        if (body.child(body.childCount() - 1) != node)
+            program.emit(Opcode.J, continuations.peek());
+    }
+
+    @Override
+    public void visit(InlinedCall node) {
+        inlinedCalls.pop();
+        program.appendLabel(continuations.pop());
     }
 
     @Override
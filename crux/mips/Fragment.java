@@ -0,0 +1,97 @@
+package mips;
+
+import java.util.Arrays;
+
+// A piece of the code segment that is built on its own, one per function.
+// Instructions are only ever appended, or replaced in place to back-patch
+// a value that was not known when they were emitted. Each fragment has its
+// own label namespace, so fragments can be generated independently.
+// Next to every instruction the fragment keeps its origin, the source
+// offset of the AST node it was generated for, or -1.
+final class Fragment {
+
+    private Instruction[] code = new Instruction[64];
+    private int[] origins = new int[64];
+    private int size;
+    private final String scope;
+    private int labelCounter;
+    // the fragment whose labels this one uses, or null for its own
+    private final Fragment namespace;
+
+    Fragment(String scope)
+    {
+        this.scope = scope;
+        this.namespace = null;
+    }
+
+    // A fragment sharing the label namespace of owner
+    Fragment(Fragment owner)
+    {
+        this.scope = null;
+        this.namespace = owner.namespace != null ? owner.namespace : owner;
+    }
+
+    // Returns a label unique to this fragment's scope
+    String newLabel()
+    {
+        if (namespace != null)
+            return namespace.newLabel();
+        return scope + "." + labelCounter++;
+    }
+
+    // Returns the position of the instruction in the fragment
+    int append(Instruction instr, int origin)
+    {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, 2 * size);
+            origins = Arrays.copyOf(origins, 2 * size);
+        }
+        code[size] = instr;
+        origins[size] = origin;
+        return size++;
+    }
+
+    Instruction get(int pos)
+    {
+        return code[pos];
+    }
+
+    int origin(int pos)
+    {
+        return origins[pos];
+    }
+
+    // Replaces the instruction at pos, which keeps its origin
+    void set(int pos, Instruction instr)
+    {
+        code[pos] = instr;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    // A copy of the instructions, for passes that rewrite the fragment
+    Instruction[] toArray()
+    {
+        return Arrays.copyOf(code, size);
+    }
+
+    // Replaces the instructions with the ones in instrs that are not null.
+    // instrs is what toArray returned, rewritten in place, so every
+    // instruction keeps the origin of the one it replaced.
+    void setCode(Instruction[] instrs)
+    {
+        int kept = 0;
+        for (int i = 0; i < instrs.length; i++) {
+            if (instrs[i] != null) {
+                code[kept] = instrs[i];
+                origins[kept] = origins[i];
+                kept++;
+            }
+        }
+        size = kept;
+        Arrays.fill(code, size, code.length, null);
+    }
+}
@@ -0,0 +1,128 @@
+package mips;
+
+// One entry of the code segment: an instruction, a label or a comment.
+// Operands are kept as registers, an immediate and a label, and are only
+// turned into text when the program is printed.
+final class Instruction {
+
+    final Opcode op;
+    final Register r1;
+    final Register r2;
+    final Register r3;
+    // immediate, memory offset, or the bits of a li.s constant
+    final int imm;
+    // branch target, address of a la, or the label a LABEL defines
+    final String label;
+    // what a COMMENT is about, formatted when printed
+    final Object note;
+
+    Instruction(Opcode op, Register r1, Register r2, Register r3, int imm, String label, Object note)
+    {
+        this.op = op;
+        this.r1 = r1;
+        this.r2 = r2;
+        this.r3 = r3;
+        this.imm = imm;
+        this.label = label;
+        this.note = note;
+    }
+
+    // The register this instruction writes, or null
+    public Register defined()
+    {
+        return op.defines ? r1 : null;
+    }
+
+    public boolean uses(Register reg)
+    {
+        return reg != null && ((r1 == reg && !op.defines) || r2 == reg || r3 == reg);
+    }
+
+    public boolean mentions(Register reg)
+    {
+        return reg != null && (r1 == reg || r2 == reg || r3 == reg);
+    }
+
+    // Copy of this instruction reading from wherever it read reg
+    public Instruction replaceUses(Register reg, Register from)
+    {
+        return new Instruction(op,
+                r1 == reg && !op.defines ? from : r1,
+                r2 == reg ? from : r2,
+                r3 == reg ? from : r3,
+                imm, label, note);
+    }
+
+    public void appendTo(StringBuilder sb)
+    {
+        switch (op.shape) {
+            case LABEL:
+                sb.append(label).append(':');
+                return;
+            case COMMENT:
+                sb.append("\t\t\t# ").append(label).append(' ').append(note);
+                return;
+            default:
+                break;
+        }
+
+        sb.append(op.mnemonic);
+        for (int i = op.mnemonic.length(); i < 4; i++)
+            sb.append(' ');
+        sb.append('\t');
+        switch (op.shape) {
+            case RRR:
+                sb.append(r1).append(", ").append(r2).append(", ").append(r3);
+                break;
+            case RRI:
+                sb.append(r1).append(", ").append(r2).append(", ").append(imm);
+                break;
+            case RR:
+                sb.append(r1).append(", ").append(r2);
+                break;
+            case R:
+                sb.append(r1);
+                break;
+            case RI:
+                sb.append(r1).append(", ").append(imm);
+                break;
+            case RF:
+                sb.append(r1).append(", ").append(Float.intBitsToFloat(imm));
+                break;
+            case MEM:
+                sb.append(r1).append(", ");
+                if (label == null) {
+                    sb.append(imm).append('(').append(r2).append(')');
+                    break;
+                }
+                sb.append(label);
+                if (imm > 0)
+                    sb.append('+');
+                if (imm != 0)
+                    sb.append(imm);
+                if (r2 != null)
+                    sb.append('(').append(r2).append(')');
+                break;
+            case RL:
+                sb.append(r1).append(", ").append(label);
+                break;
+            case RRL:
+                sb.append(r1).append(", ").append(r2).append(", ").append(label);
+                break;
+            case L:
+                sb.append(label);
+                break;
+            default:
+                sb.setLength(sb.length() - 1);
+                break;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+}
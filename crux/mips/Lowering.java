@@ -0,0 +1,1019 @@
+package mips;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import ast.ArrayDeclaration;
+import ast.Comparison;
+import ast.Declaration;
+import ast.VariableDeclaration;
+import crux.Symbol;
+import ir.Argument;
+import ir.BasicBlock;
+import ir.Constant;
+import ir.Function;
+import ir.Instruction.Op;
+import ir.Unit;
+import ir.Value;
+import types.FuncType;
+import types.Type;
+
+// Generates the program from its IR, one function at a time, with the same
+// calling convention and frames as CodeGen. The values of instructions live
+// in registers chosen by linear scan over the blocks in layout order, or in
+// frame slots when there are not enough of them; values live across a call
+// only get callee-saved registers. The address of a variable, and constant
+// offsets into an array, are folded into the loads and stores that use
+// them, and a comparison only a branch uses is branched on directly. The
+// phis of a block are copied to at the end of its predecessors, which is
+// why critical edges are split first.
+public class Lowering {
+
+    // $t0-$t2 and $f0-$f2 are scratch
+    private static final Register[] INT_TEMPS = {
+        Register.T3, Register.T4, Register.T5, Register.T6, Register.T7, Register.T8, Register.T9
+    };
+    private static final Register[] INT_SAVED = {
+        Register.S0, Register.S1, Register.S2, Register.S3,
+        Register.S4, Register.S5, Register.S6, Register.S7
+    };
+    private static final Register[] FLOAT_TEMPS = {
+        Register.F4, Register.F5, Register.F6, Register.F7, Register.F8, Register.F9,
+        Register.F10, Register.F11, Register.F16, Register.F17, Register.F18, Register.F19
+    };
+    private static final Register[] FLOAT_SAVED = {
+        Register.F20, Register.F21, Register.F22, Register.F23, Register.F24, Register.F25,
+        Register.F26, Register.F27, Register.F28, Register.F29, Register.F30, Register.F31
+    };
+
+    // Array elements are words
+    private static final int ELEMENT_SHIFT = 2;
+
+    private static class Interval
+    {
+        final Value value;
+        final int id;
+        int start = Integer.MAX_VALUE;
+        int end = -1;
+        boolean crossesCall;
+        Register register;
+        int slot = -1;
+
+        Interval(Value value, int id)
+        {
+            this.value = value;
+            this.id = id;
+        }
+
+        void extend(int position)
+        {
+            start = Math.min(start, position);
+            end = Math.max(end, position);
+        }
+    }
+
+    // A copy into the phi at dst, from the location src or of a constant
+    private static class Move
+    {
+        final Object dst;
+        Object src;
+        final Constant constant;
+        final boolean isFloat;
+
+        Move(Object dst, Object src, Constant constant, boolean isFloat)
+        {
+            this.dst = dst;
+            this.src = src;
+            this.constant = constant;
+            this.isFloat = isFloat;
+        }
+    }
+
+    private Program program = new Program();
+    private ActivationRecord globals = ActivationRecord.newGlobalFrame();
+    private boolean registerArguments;
+
+    // the function being generated
+    private Function function;
+    private ActivationRecord frame;
+    // the instructions that are part of the code of the ones using them
+    private HashSet<ir.Instruction> folded = new HashSet<>();
+    private HashMap<Value, Interval> intervals = new HashMap<>();
+    private HashMap<BasicBlock, String> labels = new HashMap<>();
+    private ArrayList<Register> savedRegisters = new ArrayList<>();
+    private int slotCount;
+    private int spillBase;
+    private int saveBase;
+    private String epilogue;
+    private boolean epilogueUsed;
+
+    // With registerArguments, calls pass their first arguments in registers
+    // instead of on the stack, see ActivationRecord.argumentRegisters
+    public void setRegisterArguments(boolean registerArguments)
+    {
+        this.registerArguments = registerArguments;
+        program.setRegisterArguments(registerArguments);
+    }
+
+    public Program getProgram()
+    {
+        return program;
+    }
+
+    public void generate(Unit unit)
+    {
+        for (Declaration declaration : unit.globals())
+            declare(globals, declaration);
+        for (Function function : unit.functions())
+            generate(function);
+    }
+
+    private void declare(ActivationRecord frame, Declaration declaration)
+    {
+        if (declaration instanceof VariableDeclaration)
+            frame.add(program, (VariableDeclaration) declaration);
+        else
+            frame.add(program, (ArrayDeclaration) declaration);
+    }
+
+    private void generate(Function function)
+    {
+        this.function = function;
+        function.splitCriticalEdges();
+        HashSet<Symbol> unaddressed = unaddressed();
+        frame = new ActivationRecord(function.definition(), globals, registerArguments, false, unaddressed);
+        fold();
+        allocate();
+        spillBase = frame.reserveWords(slotCount);
+        saveBase = frame.reserveWords(savedRegisters.size());
+        for (Declaration declaration : function.locals())
+            if (!unaddressed.contains(declaration.symbol()))
+                declare(frame, declaration);
+
+        String name = function.symbol().name();
+        String prefix = !name.equals("main") ? "func." : "";
+        program.beginFragment(prefix + name + ".label");
+        program.setOrigin(function.definition().start());
+        program.appendLabel(prefix + name);
+        epilogue = prefix + name + ".epilogue";
+        epilogueUsed = false;
+        program.appendPrologue(frame.frameSize(), frame.makesCalls(), frame.usesFramePointer());
+        frame.homeArguments(program);
+        saveRegisters(false);
+        receiveArguments();
+
+        labels.clear();
+        for (BasicBlock block : function.blocks())
+            labels.put(block, program.newLabel());
+        List<BasicBlock> blocks = function.blocks();
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock next = b + 1 < blocks.size() ? blocks.get(b + 1) : null;
+            if (b > 0)
+                program.appendLabel(labels.get(blocks.get(b)));
+            for (ir.Instruction instr : blocks.get(b).instructions()) {
+                program.setOrigin(instr.origin());
+                emit(instr, next);
+            }
+        }
+
+        program.setOrigin(function.definition().start());
+        if (epilogueUsed)
+            program.appendLabel(epilogue);
+        saveRegisters(true);
+        program.appendEpilogue(frame.frameSize(), frame.makesCalls(), frame.usesFramePointer());
+    }
+
+    // The parameters and locals no instruction takes the address of, which
+    // need no place in the frame
+    private HashSet<Symbol> unaddressed()
+    {
+        HashSet<Symbol> unaddressed = new HashSet<>(function.parameters());
+        for (Declaration declaration : function.locals())
+            unaddressed.add(declaration.symbol());
+        for (BasicBlock block : function.blocks())
+            for (ir.Instruction instr : block.instructions())
+                if (instr.op() == Op.ADDRESS)
+                    unaddressed.remove(instr.symbol());
+        return unaddressed;
+    }
+
+    // Copies the arguments the function uses as values from where the
+    // caller passed them to where they are kept
+    private void receiveArguments()
+    {
+        List<Register> argRegs = new ArrayList<>();
+        for (Symbol parameter : function.parameters())
+            argRegs.add(null);
+        if (registerArguments)
+            argRegs = ActivationRecord.argumentRegisters(((FuncType) function.symbol().type()).arguments());
+        for (Argument argument : function.arguments()) {
+            if (!intervals.containsKey(argument))
+                continue;
+            Register reg = argRegs.get(argument.index());
+            Operand incoming = reg != null ? Operand.register(reg) : frame.locateInFrame(argument.parameter());
+            Register dst = target(argument, argument.isFloat() ? Register.F0 : Register.T0);
+            if (incoming.memory)
+                program.emit(argument.isFloat() ? Opcode.L_S : Opcode.LW, dst, incoming);
+            else if (incoming.register != dst)
+                program.emit(argument.isFloat() ? Opcode.MOV_S : Opcode.MOVE, dst, incoming.register);
+            commit(argument, dst);
+        }
+    }
+
+    // Addresses, constant indexes and the comparisons a branch right after
+    // them is the only user of
+    private void fold()
+    {
+        folded.clear();
+        for (BasicBlock block : function.blocks()) {
+            for (ir.Instruction instr : block.instructions()) {
+                switch (instr.op()) {
+                    case ADDRESS:
+                        folded.add(instr);
+                        break;
+                    case INDEX:
+                        if (instr.operand(1) instanceof Constant
+                                && fits((long) ((Constant) instr.operand(1)).intValue() << ELEMENT_SHIFT))
+                            folded.add(instr);
+                        break;
+                    case COMPARE:
+                        if (instr.users().size() == 1 && instr.users().get(0).op() == Op.BRANCH
+                                && instr.users().get(0).block() == block)
+                            folded.add(instr);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    // Whether instr has a value of its own to keep somewhere
+    private boolean isAllocated(ir.Instruction instr)
+    {
+        if (instr.type().kind() == Type.Kind.VOID || folded.contains(instr))
+            return false;
+        return instr.op() != Op.CALL || !instr.users().isEmpty();
+    }
+
+    // The values instr reads when it is executed, looking through the
+    // folded instructions that are part of its code. Not the operands of a
+    // phi, which are read at the end of the predecessors.
+    private void reads(ir.Instruction instr, List<Interval> out)
+    {
+        if (instr.op() == Op.PHI)
+            return;
+        for (int i = 0; i < instr.operandCount(); i++) {
+            Value operand = instr.operand(i);
+            if (folded.contains(operand))
+                reads((ir.Instruction) operand, out);
+            else if (intervals.containsKey(operand))
+                out.add(intervals.get(operand));
+        }
+    }
+
+    // Instructions are numbered in layout order, the one numbered n reads
+    // its operands at 2n and writes its value at 2n+1. Phis are written at
+    // the start of their block, their operands read at the terminators of
+    // the predecessors, and arguments right before the first instruction. An interval spans every position its value is live
+    // at, which is found by dataflow over the blocks.
+    private void allocate()
+    {
+        intervals.clear();
+        savedRegisters.clear();
+        slotCount = 0;
+        List<BasicBlock> blocks = function.blocks();
+        HashMap<BasicBlock, Integer> blockIndex = new HashMap<>();
+        HashMap<ir.Instruction, Integer> positions = new HashMap<>();
+        ArrayList<Interval> all = new ArrayList<>();
+        TreeSet<Integer> calls = new TreeSet<>();
+        for (Argument argument : function.arguments()) {
+            if (argument.users().isEmpty())
+                continue;
+            Interval interval = new Interval(argument, all.size());
+            interval.extend(-1);
+            intervals.put(argument, interval);
+            all.add(interval);
+        }
+        int[] blockStart = new int[blocks.size()];
+        int[] blockEnd = new int[blocks.size()];
+        int n = 0;
+        for (int b = 0; b < blocks.size(); b++) {
+            blockIndex.put(blocks.get(b), b);
+            blockStart[b] = 2 * n;
+            for (ir.Instruction instr : blocks.get(b).instructions()) {
+                positions.put(instr, 2 * n);
+                if (isAllocated(instr)) {
+                    Interval interval = new Interval(instr, all.size());
+                    intervals.put(instr, interval);
+                    all.add(interval);
+                }
+                if (instr.op() == Op.CALL)
+                    calls.add(2 * n);
+                n++;
+            }
+            blockEnd[b] = 2 * n - 1;
+        }
+
+        // the values used before they are defined in a block, the ones it
+        // defines, and the ones its successors' phis take from it
+        BitSet[] used = new BitSet[blocks.size()];
+        BitSet[] defined = new BitSet[blocks.size()];
+        BitSet[] phiUsed = new BitSet[blocks.size()];
+        ArrayList<Interval> read = new ArrayList<>();
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock block = blocks.get(b);
+            used[b] = new BitSet();
+            defined[b] = new BitSet();
+            phiUsed[b] = new BitSet();
+            for (ir.Instruction instr : block.instructions()) {
+                read.clear();
+                reads(instr, read);
+                for (Interval interval : read)
+                    if (!defined[b].get(interval.id))
+                        used[b].set(interval.id);
+                if (intervals.containsKey(instr))
+                    defined[b].set(intervals.get(instr).id);
+            }
+            for (BasicBlock successor : block.successors()) {
+                int index = successor.predecessors().indexOf(block);
+                for (ir.Instruction phi : successor.phis()) {
+                    Interval interval = intervals.get(phi.operand(index));
+                    if (interval != null)
+                        phiUsed[b].set(interval.id);
+                }
+            }
+        }
+        BitSet[] liveIn = new BitSet[blocks.size()];
+        BitSet[] liveOut = new BitSet[blocks.size()];
+        for (int b = 0; b < blocks.size(); b++) {
+            liveIn[b] = new BitSet();
+            liveOut[b] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                BitSet out = (BitSet) phiUsed[b].clone();
+                for (BasicBlock successor : blocks.get(b).successors())
+                    out.or(liveIn[blockIndex.get(successor)]);
+                BitSet in = (BitSet) out.clone();
+                in.andNot(defined[b]);
+                in.or(used[b]);
+                if (!in.equals(liveIn[b]) || !out.equals(liveOut[b])) {
+                    liveIn[b] = in;
+                    liveOut[b] = out;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock block = blocks.get(b);
+            for (int id = liveOut[b].nextSetBit(0); id >= 0; id = liveOut[b].nextSetBit(id + 1))
+                all.get(id).extend(blockEnd[b]);
+            for (int id = liveIn[b].nextSetBit(0); id >= 0; id = liveIn[b].nextSetBit(id + 1))
+                all.get(id).extend(blockStart[b]);
+            for (ir.Instruction instr : block.instructions()) {
+                int position = positions.get(instr);
+                Interval interval = intervals.get(instr);
+                if (interval != null)
+                    interval.extend(instr.op() == Op.PHI ? blockStart[b] : position + 1);
+                read.clear();
+                reads(instr, read);
+                for (Interval operand : read)
+                    operand.extend(position);
+            }
+            for (int id = phiUsed[b].nextSetBit(0); id >= 0; id = phiUsed[b].nextSetBit(id + 1))
+                all.get(id).extend(blockEnd[b] - 1);
+        }
+        for (Interval interval : all) {
+            Integer call = calls.higher(interval.start);
+            interval.crossesCall = call != null && call < interval.end;
+        }
+        scan(all);
+    }
+
+    // Linear scan over the intervals by start. When no register is free,
+    // the one of the interval that ends last goes to the new one, if that
+    // is not the new one itself; the other is spilled to a slot.
+    private void scan(ArrayList<Interval> all)
+    {
+        all.sort(Comparator.comparingInt((Interval interval) -> interval.start)
+                .thenComparingInt(interval -> interval.id));
+        EnumSet<Register> free = EnumSet.noneOf(Register.class);
+        for (Register[] pool : new Register[][] { INT_TEMPS, INT_SAVED, FLOAT_TEMPS, FLOAT_SAVED })
+            for (Register reg : pool)
+                free.add(reg);
+        TreeSet<Integer> freeSlots = new TreeSet<>();
+        EnumSet<Register> saved = EnumSet.noneOf(Register.class);
+        ArrayList<Interval> active = new ArrayList<>();
+        for (Interval interval : all) {
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Interval old = active.get(i);
+                if (old.end >= interval.start)
+                    continue;
+                if (old.register != null)
+                    free.add(old.register);
+                else
+                    freeSlots.add(old.slot);
+                active.remove(i);
+            }
+            boolean isFloat = interval.value.isFloat();
+            Register reg = null;
+            if (!interval.crossesCall)
+                reg = take(free, isFloat ? FLOAT_TEMPS : INT_TEMPS);
+            if (reg == null)
+                reg = take(free, isFloat ? FLOAT_SAVED : INT_SAVED);
+            if (reg == null) {
+                Interval victim = null;
+                for (Interval other : active) {
+                    if (other.register == null || other.register.isFloat() != isFloat
+                            || (interval.crossesCall && !isSaved(other.register)))
+                        continue;
+                    if (victim == null || other.end > victim.end)
+                        victim = other;
+                }
+                if (victim != null && victim.end > interval.end) {
+                    reg = victim.register;
+                    victim.register = null;
+                    // it was live before any slot freed so far was
+                    victim.slot = slotCount++;
+                } else {
+                    interval.slot = freeSlots.isEmpty() ? slotCount++ : freeSlots.pollFirst();
+                }
+            }
+            interval.register = reg;
+            if (reg != null && isSaved(reg))
+                saved.add(reg);
+            active.add(interval);
+        }
+        savedRegisters.addAll(saved);
+    }
+
+    private static Register take(EnumSet<Register> free, Register[] pool)
+    {
+        for (Register reg : pool) {
+            if (free.remove(reg))
+                return reg;
+        }
+        return null;
+    }
+
+    private static boolean isSaved(Register reg)
+    {
+        return (reg.ordinal() >= Register.S0.ordinal() && reg.ordinal() <= Register.S7.ordinal())
+                || reg.ordinal() >= Register.F20.ordinal();
+    }
+
+    // Stores (or with load, reloads) the callee-saved registers in use
+    private void saveRegisters(boolean load)
+    {
+        int offset = saveBase;
+        for (Register reg : savedRegisters) {
+            Opcode op = reg.isFloat() ? (load ? Opcode.L_S : Opcode.S_S) : (load ? Opcode.LW : Opcode.SW);
+            program.emit(op, reg, frame.slot(offset));
+            offset -= 4;
+        }
+    }
+
+    private Operand slot(int slot)
+    {
+        return frame.slot(spillBase - 4 * slot);
+    }
+
+    // The register holding value, loaded into scratch if it is not in one.
+    // A false or zero constant is $zero.
+    private Register fetch(Value value, Register scratch)
+    {
+        if (value instanceof Constant) {
+            Constant constant = (Constant) value;
+            if (value.isFloat()) {
+                program.emit(Opcode.LI_S, scratch, constant.floatValue());
+                return scratch;
+            }
+            if (constant.intValue() == 0)
+                return Register.ZERO;
+            program.emit(Opcode.LI, scratch, constant.intValue());
+            return scratch;
+        }
+        if (value instanceof Argument)
+            return raw(value, scratch);
+        ir.Instruction instr = (ir.Instruction) value;
+        if (instr.op() == Op.ADDRESS || instr.op() == Op.INDEX) {
+            Operand address = address(instr, scratch);
+            if (!address.memory)
+                return address.register;
+            program.emit(Opcode.LA, scratch, address);
+            return scratch;
+        }
+        return raw(instr, scratch);
+    }
+
+    // The register the value is kept in, or scratch loaded from its slot
+    private Register raw(Value value, Register scratch)
+    {
+        Interval interval = intervals.get(value);
+        if (interval.register != null)
+            return interval.register;
+        program.emit(value.isFloat() ? Opcode.L_S : Opcode.LW, scratch, slot(interval.slot));
+        return scratch;
+    }
+
+    // Register to compute the value into
+    private Register target(Value value, Register scratch)
+    {
+        Register reg = intervals.get(value).register;
+        return reg != null ? reg : scratch;
+    }
+
+    // Stores the value, computed into reg, to its slot if it has one
+    private void commit(Value value, Register reg)
+    {
+        Interval interval = intervals.get(value);
+        if (interval.slot >= 0)
+            program.emit(value.isFloat() ? Opcode.S_S : Opcode.SW, reg, slot(interval.slot));
+    }
+
+    // The memory operand at the address addr computes, with the register
+    // of a computed index in it loaded into scratch if it was spilled. The
+    // register of a computed index holds the offset plus the register of
+    // its base, so only the label and offset of the base are left.
+    private Operand address(ir.Instruction addr, Register scratch)
+    {
+        Operand displacement = displacement(addr);
+        ir.Instruction index = computedIndex(addr);
+        if (index == null)
+            return displacement;
+        return Operand.memory(displacement.label, displacement.value, raw(index, scratch));
+    }
+
+    private Operand displacement(ir.Instruction addr)
+    {
+        if (addr.op() == Op.ADDRESS) {
+            Operand address = frame.locate(addr.symbol());
+            if (address == null)
+                throw new RuntimeException("Address of " + addr.symbol() + ": not in scope");
+            return address;
+        }
+        Operand base = displacement((ir.Instruction) addr.operand(0));
+        if (folded.contains(addr))
+            return base.plus(((Constant) addr.operand(1)).intValue() << ELEMENT_SHIFT);
+        return Operand.memory(base.label, base.value, null);
+    }
+
+    // The index with an offset computed at run time addr is at, if any
+    private ir.Instruction computedIndex(ir.Instruction addr)
+    {
+        while (folded.contains(addr) && addr.op() == Op.INDEX)
+            addr = (ir.Instruction) addr.operand(0);
+        return addr.op() == Op.INDEX ? addr : null;
+    }
+
+    private void emit(ir.Instruction instr, BasicBlock next)
+    {
+        if (folded.contains(instr) || instr.op() == Op.PHI)
+            return;
+        switch (instr.op()) {
+            case INDEX:
+                index(instr);
+                break;
+            case LOAD: {
+                Operand address = address((ir.Instruction) instr.operand(0), Register.T2);
+                Register dst = target(instr, instr.isFloat() ? Register.F0 : Register.T0);
+                if (!address.memory)
+                    program.emit(instr.isFloat() ? Opcode.MOV_S : Opcode.MOVE, dst, address.register);
+                else
+                    program.emit(instr.isFloat() ? Opcode.L_S : Opcode.LW, dst, address);
+                commit(instr, dst);
+                break;
+            }
+            case STORE: {
+                Value value = instr.operand(1);
+                Register reg = fetch(value, value.isFloat() ? Register.F0 : Register.T0);
+                Operand address = address((ir.Instruction) instr.operand(0), Register.T2);
+                if (!address.memory)
+                    program.emit(value.isFloat() ? Opcode.MOV_S : Opcode.MOVE, address.register, reg);
+                else
+                    program.emit(value.isFloat() ? Opcode.S_S : Opcode.SW, reg, address);
+                break;
+            }
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                if (instr.isFloat())
+                    floatArithmetic(instr);
+                else
+                    arithmetic(instr);
+                break;
+            case COMPARE:
+                compare(instr);
+                break;
+            case NOT: {
+                Register operand = fetch(instr.operand(0), Register.T0);
+                Register dst = target(instr, Register.T0);
+                program.emit(Opcode.XORI, dst, operand, 1);
+                commit(instr, dst);
+                break;
+            }
+            case CALL:
+                call(instr);
+                break;
+            case JUMP:
+                copyPhis(instr.block(), instr.target(0));
+                if (instr.target(0) != next)
+                    program.emit(Opcode.J, labels.get(instr.target(0)));
+                break;
+            case BRANCH:
+                branch(instr, next);
+                break;
+            case RETURN:
+                ret(instr, next);
+                break;
+            default:
+                throw new RuntimeException("Cannot generate code for " + instr.op());
+        }
+    }
+
+    // The offset of the element plus the register of the base, if it has one
+    private void index(ir.Instruction instr)
+    {
+        Operand base = address((ir.Instruction) instr.operand(0), Register.T2);
+        Register amount = fetch(instr.operand(1), Register.T0);
+        Register dst = target(instr, Register.T0);
+        if (base.register == null) {
+            program.emit(Opcode.SLL, dst, amount, ELEMENT_SHIFT);
+        } else {
+            program.emit(Opcode.SLL, Register.T1, amount, ELEMENT_SHIFT);
+            program.emit(Opcode.ADDU, dst, Register.T1, base.register);
+        }
+        commit(instr, dst);
+    }
+
+    private void arithmetic(ir.Instruction instr)
+    {
+        Value left = instr.operand(0);
+        Value right = instr.operand(1);
+        Register dst = target(instr, Register.T0);
+        switch (instr.op()) {
+            case ADD:
+                if (isImmediate(right)) {
+                    program.emit(Opcode.ADDIU, dst, fetch(left, Register.T0), intValue(right));
+                } else if (isImmediate(left)) {
+                    program.emit(Opcode.ADDIU, dst, fetch(right, Register.T0), intValue(left));
+                } else {
+                    Register lhs = fetch(left, Register.T0);
+                    program.emit(Opcode.ADDU, dst, lhs, fetch(right, Register.T1));
+                }
+                break;
+            case SUB:
+                if (right instanceof Constant && fits(-(long) intValue(right))) {
+                    program.emit(Opcode.ADDIU, dst, fetch(left, Register.T0), -intValue(right));
+                } else {
+                    Register lhs = fetch(left, Register.T0);
+                    program.emit(Opcode.SUBU, dst, lhs, fetch(right, Register.T1));
+                }
+                break;
+            case MUL:
+                if (right instanceof Constant && isPowerOfTwo(intValue(right))) {
+                    program.emit(Opcode.SLL, dst, fetch(left, Register.T0), Integer.numberOfTrailingZeros(intValue(right)));
+                } else if (left instanceof Constant && isPowerOfTwo(intValue(left))) {
+                    program.emit(Opcode.SLL, dst, fetch(right, Register.T0), Integer.numberOfTrailingZeros(intValue(left)));
+                } else {
+                    Register lhs = fetch(left, Register.T0);
+                    program.emit(Opcode.MULT, lhs, fetch(right, Register.T1));
+                    program.emit(Opcode.MFLO, dst);
+                }
+                break;
+            default: {
+                Register lhs = fetch(left, Register.T0);
+                program.emit(Opcode.DIV, lhs, fetch(right, Register.T1));
+                program.emit(Opcode.MFLO, dst);
+                break;
+            }
+        }
+        commit(instr, dst);
+    }
+
+    private void floatArithmetic(ir.Instruction instr)
+    {
+        Opcode op;
+        switch (instr.op()) {
+            case ADD:
+                op = Opcode.ADD_S;
+                break;
+            case SUB:
+                op = Opcode.SUB_S;
+                break;
+            case MUL:
+                op = Opcode.MUL_S;
+                break;
+            default:
+                op = Opcode.DIV_S;
+                break;
+        }
+        Register lhs = fetch(instr.operand(0), Register.F0);
+        Register rhs = fetch(instr.operand(1), Register.F1);
+        Register dst = target(instr, Register.F0);
+        program.emit(op, dst, lhs, rhs);
+        commit(instr, dst);
+    }
+
+    // A comparison as a value, computed as the Selector's rules do
+    private void compare(ir.Instruction instr)
+    {
+        Value left = instr.operand(0);
+        Value right = instr.operand(1);
+        Register dst = target(instr, Register.T0);
+        Comparison.Operation op = instr.comparison();
+        if (left.isFloat()) {
+            Register lhs = fetch(left, Register.F0);
+            Register rhs = fetch(right, Register.F1);
+            String ending = program.newLabel();
+            program.emit(Opcode.LI, dst, 1);
+            boolean flagMeansTrue = Selector.compareFloats(program, op, lhs, rhs);
+            program.emit(flagMeansTrue ? Opcode.BC1T : Opcode.BC1F, ending);
+            program.emit(Opcode.LI, dst, 0);
+            program.appendLabel(ending);
+            commit(instr, dst);
+            return;
+        }
+        Register lhs = fetch(left, Register.T0);
+        if (right instanceof Constant && fitsComparison(op, intValue(right))) {
+            int value = intValue(right);
+            switch (op) {
+                case LT:
+                    program.emit(Opcode.SLTI, dst, lhs, value);
+                    break;
+                case GE:
+                    program.emit(Opcode.SLTI, dst, lhs, value);
+                    program.emit(Opcode.XORI, dst, dst, 1);
+                    break;
+                case LE:
+                    program.emit(Opcode.SLTI, dst, lhs, value + 1);
+                    break;
+                case GT:
+                    program.emit(Opcode.SLTI, dst, lhs, value + 1);
+                    program.emit(Opcode.XORI, dst, dst, 1);
+                    break;
+                case EQ:
+                    program.emit(Opcode.ADDIU, dst, lhs, -value);
+                    program.emit(Opcode.SLTIU, dst, dst, 1);
+                    break;
+                case NE:
+                    program.emit(Opcode.ADDIU, dst, lhs, -value);
+                    program.emit(Opcode.SLTU, dst, Register.ZERO, dst);
+                    break;
+            }
+        } else {
+            Register rhs = fetch(right, Register.T1);
+            switch (op) {
+                case LT:
+                    program.emit(Opcode.SLT, dst, lhs, rhs);
+                    break;
+                case GT:
+                    program.emit(Opcode.SLT, dst, rhs, lhs);
+                    break;
+                case LE:
+                    program.emit(Opcode.SLT, dst, rhs, lhs);
+                    program.emit(Opcode.XORI, dst, dst, 1);
+                    break;
+                case GE:
+                    program.emit(Opcode.SLT, dst, lhs, rhs);
+                    program.emit(Opcode.XORI, dst, dst, 1);
+                    break;
+                case EQ:
+                    program.emit(Opcode.XOR, dst, lhs, rhs);
+                    program.emit(Opcode.SLTIU, dst, dst, 1);
+                    break;
+                case NE:
+                    program.emit(Opcode.XOR, dst, lhs, rhs);
+                    program.emit(Opcode.SLTU, dst, Register.ZERO, dst);
+                    break;
+            }
+        }
+        commit(instr, dst);
+    }
+
+    // Whether the comparison of a register with value has an immediate form
+    private static boolean fitsComparison(Comparison.Operation op, int value)
+    {
+        switch (op) {
+            case LE:
+            case GT:
+                return fits((long) value + 1);
+            case EQ:
+            case NE:
+                return fits(-(long) value);
+            default:
+                return fits(value);
+        }
+    }
+
+    // Pushes the arguments passed on the stack, first one first, then moves
+    // the others to their registers
+    private void call(ir.Instruction instr)
+    {
+        FuncType funcType = (FuncType) instr.symbol().type();
+        List<Register> argRegs = new ArrayList<>();
+        if (registerArguments)
+            argRegs = ActivationRecord.argumentRegisters(funcType.arguments());
+        else
+            for (int i = 0; i < instr.operandCount(); i++)
+                argRegs.add(null);
+        int pushed = 0;
+        for (int i = 0; i < instr.operandCount(); i++) {
+            if (argRegs.get(i) != null)
+                continue;
+            Value arg = instr.operand(i);
+            if (arg.isFloat())
+                program.pushFloat(fetch(arg, Register.F0));
+            else
+                program.pushInt(fetch(arg, Register.T0));
+            pushed += 4;
+        }
+        for (int i = 0; i < instr.operandCount(); i++) {
+            Register reg = argRegs.get(i);
+            if (reg == null)
+                continue;
+            Register value = fetch(instr.operand(i), reg);
+            if (value != reg)
+                program.emit(reg.isFloat() ? Opcode.MOV_S : Opcode.MOVE, reg, value);
+        }
+        program.emit(Opcode.JAL, "func." + instr.symbol().name());
+        if (pushed != 0)
+            program.emit(Opcode.ADDIU, Register.SP, Register.SP, pushed);
+        if (!intervals.containsKey(instr))
+            return;
+        Register result = instr.isFloat() ? Register.F0 : Register.V0;
+        Register dst = target(instr, result);
+        if (dst != result)
+            program.emit(instr.isFloat() ? Opcode.MOV_S : Opcode.MOVE, dst, result);
+        commit(instr, dst);
+    }
+
+    // Falls through to the block laid out next where it can
+    private void branch(ir.Instruction instr, BasicBlock next)
+    {
+        BasicBlock ifTrue = instr.target(0);
+        BasicBlock ifFalse = instr.target(1);
+        Value condition = instr.operand(0);
+        if (condition instanceof Constant || ifTrue == ifFalse) {
+            BasicBlock target = ifTrue;
+            if (condition instanceof Constant && intValue(condition) == 0)
+                target = ifFalse;
+            if (target != next)
+                program.emit(Opcode.J, labels.get(target));
+            return;
+        }
+        boolean fallThrough = ifTrue == next;
+        String label = labels.get(fallThrough ? ifFalse : ifTrue);
+        ir.Instruction compare = folded.contains(condition) ? (ir.Instruction) condition : null;
+        if (compare == null) {
+            Register value = fetch(condition, Register.T0);
+            program.emit(fallThrough ? Opcode.BEQZ : Opcode.BNEZ, value, label);
+        } else if (compare.operand(0).isFloat()) {
+            Register lhs = fetch(compare.operand(0), Register.F0);
+            Register rhs = fetch(compare.operand(1), Register.F1);
+            boolean flagMeansTrue = Selector.compareFloats(program, compare.comparison(), lhs, rhs);
+            program.emit(flagMeansTrue != fallThrough ? Opcode.BC1T : Opcode.BC1F, label);
+        } else {
+            Register lhs = fetch(compare.operand(0), Register.T0);
+            Register rhs = fetch(compare.operand(1), Register.T1);
+            Comparison.Operation op = compare.comparison();
+            if (fallThrough)
+                op = CodeGen.negate(op);
+            program.emit(CodeGen.branchOpcode(op), lhs, rhs, label);
+        }
+        if (!fallThrough && ifFalse != next)
+            program.emit(Opcode.J, labels.get(ifFalse));
+    }
+
+    // The value goes in $v0 or $f0, and the last block falls into the
+    // epilogue
+    private void ret(ir.Instruction instr, BasicBlock next)
+    {
+        if (instr.operandCount() > 0) {
+            Value value = instr.operand(0);
+            Register result = value.isFloat() ? Register.F0 : Register.V0;
+            Register reg = fetch(value, result);
+            if (reg != result)
+                program.emit(value.isFloat() ? Opcode.MOV_S : Opcode.MOVE, result, reg);
+        }
+        if (next != null) {
+            program.emit(Opcode.J, epilogue);
+            epilogueUsed = true;
+        }
+    }
+
+    // Where the value is kept: its register or the number of its slot
+    private Object location(Value value)
+    {
+        Interval interval = intervals.get(value);
+        return interval.register != null ? interval.register : (Object) interval.slot;
+    }
+
+    // The copies into the phis of to at the end of from, which happen all
+    // at once: a copy is made once no other one still reads what it
+    // overwrites, and a cycle of them is broken by moving one of the values
+    // to $t2 or $f2 first. Constants come last, nothing reads the phis
+    // they go to.
+    private void copyPhis(BasicBlock from, BasicBlock to)
+    {
+        List<ir.Instruction> phis = to.phis();
+        if (phis.isEmpty())
+            return;
+        int index = to.predecessors().indexOf(from);
+        ArrayList<Move> moves = new ArrayList<>();
+        ArrayList<Move> constants = new ArrayList<>();
+        for (ir.Instruction phi : phis) {
+            Object dst = location(phi);
+            Value value = phi.operand(index);
+            if (value instanceof Constant) {
+                constants.add(new Move(dst, null, (Constant) value, phi.isFloat()));
+                continue;
+            }
+            Object src = location(value);
+            if (!src.equals(dst))
+                moves.add(new Move(dst, src, null, phi.isFloat()));
+        }
+        while (!moves.isEmpty()) {
+            Move ready = null;
+            for (Move move : moves) {
+                boolean read = false;
+                for (Move other : moves)
+                    read |= other != move && other.src.equals(move.dst);
+                if (!read) {
+                    ready = move;
+                    break;
+                }
+            }
+            if (ready != null) {
+                move(ready.dst, ready.src, ready.isFloat);
+                moves.remove(ready);
+                continue;
+            }
+            Move move = moves.get(0);
+            Register scratch = move.isFloat ? Register.F2 : Register.T2;
+            move(scratch, move.dst, move.isFloat);
+            for (Move other : moves)
+                if (other.src.equals(move.dst))
+                    other.src = scratch;
+        }
+        for (Move move : constants) {
+            Register reg = move.dst instanceof Register ? (Register) move.dst
+                    : (move.isFloat ? Register.F0 : Register.T0);
+            if (move.isFloat)
+                program.emit(Opcode.LI_S, reg, move.constant.floatValue());
+            else
+                program.emit(Opcode.LI, reg, move.constant.intValue());
+            if (!(move.dst instanceof Register))
+                program.emit(move.isFloat ? Opcode.S_S : Opcode.SW, reg, slot((Integer) move.dst));
+        }
+    }
+
+    // Copies between registers and slots, through $t0 or $f0 from slot to slot
+    private void move(Object dst, Object src, boolean isFloat)
+    {
+        Register reg;
+        if (src instanceof Register) {
+            reg = (Register) src;
+        } else {
+            reg = dst instanceof Register ? (Register) dst : (isFloat ? Register.F0 : Register.T0);
+            program.emit(isFloat ? Opcode.L_S : Opcode.LW, reg, slot((Integer) src));
+        }
+        if (dst instanceof Register) {
+            if (reg != dst)
+                program.emit(isFloat ? Opcode.MOV_S : Opcode.MOVE, (Register) dst, reg);
+        } else {
+            program.emit(isFloat ? Opcode.S_S : Opcode.SW, reg, slot((Integer) dst));
+        }
+    }
+
+    private static boolean isImmediate(Value value)
+    {
+        return value instanceof Constant && fits(((Constant) value).intValue());
+    }
+
+    private static int intValue(Value value)
+    {
+        return ((Constant) value).intValue();
+    }
+
+    private static boolean fits(long value)
+    {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    private static boolean isPowerOfTwo(int value)
+    {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+}
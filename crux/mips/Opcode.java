@@ -0,0 +1,106 @@
+package mips;
+
+// The instructions CodeGen emits, with the shape of their operands.
+// An opcode that defines writes its first register operand; every other
+// register operand is read.
+public enum Opcode {
+    ADD("add", Shape.RRR, true),
+    ADDU("addu", Shape.RRR, true),
+    SUBU("subu", Shape.RRR, true),
+    AND("and", Shape.RRR, true),
+    OR("or", Shape.RRR, true),
+    XOR("xor", Shape.RRR, true),
+    SLT("slt", Shape.RRR, true),
+    SLTU("sltu", Shape.RRR, true),
+    ADD_S("add.s", Shape.RRR, true),
+    SUB_S("sub.s", Shape.RRR, true),
+    MUL_S("mul.s", Shape.RRR, true),
+    DIV_S("div.s", Shape.RRR, true),
+
+    ADDI("addi", Shape.RRI, true),
+    ADDIU("addiu", Shape.RRI, true),
+    SLTI("slti", Shape.RRI, true),
+    SLTIU("sltiu", Shape.RRI, true),
+    XORI("xori", Shape.RRI, true),
+    SLL("sll", Shape.RRI, true),
+
+    MOVE("move", Shape.RR, true),
+    MOV_S("mov.s", Shape.RR, true),
+    MULT("mult", Shape.RR, false),
+    DIV("div", Shape.RR, false),
+    C_EQ_S("c.eq.s", Shape.RR, false),
+    C_LT_S("c.lt.s", Shape.RR, false),
+    C_LE_S("c.le.s", Shape.RR, false),
+    C_NE_S("c.ne.s", Shape.RR, false),
+    C_GE_S("c.ge.s", Shape.RR, false),
+    C_GT_S("c.gt.s", Shape.RR, false),
+
+    MFLO("mflo", Shape.R, true),
+    LI("li", Shape.RI, true),
+    LI_S("li.s", Shape.RF, true),
+
+    LW("lw", Shape.MEM, true),
+    SW("sw", Shape.MEM, false),
+    L_S("l.s", Shape.MEM, true),
+    S_S("s.s", Shape.MEM, false),
+    LA("la", Shape.MEM, true),
+
+    // control flow
+    BEQZ("beqz", Shape.RL, false),
+    BNEZ("bnez", Shape.RL, false),
+    BEQ("beq", Shape.RRL, false),
+    BNE("bne", Shape.RRL, false),
+    BLT("blt", Shape.RRL, false),
+    BLE("ble", Shape.RRL, false),
+    BGT("bgt", Shape.RRL, false),
+    BGE("bge", Shape.RRL, false),
+    BC1F("bc1f", Shape.L, false),
+    BC1T("bc1t", Shape.L, false),
+    J("j", Shape.L, false),
+    JAL("jal", Shape.L, false),
+    JR("jr", Shape.R, false),
+    SYSCALL("syscall", Shape.NONE, false),
+
+    // not instructions
+    LABEL(null, Shape.LABEL, false),
+    COMMENT(null, Shape.COMMENT, false);
+
+    enum Shape {
+        RRR,     // op r1, r2, r3
+        RRI,     // op r1, r2, imm
+        RR,      // op r1, r2
+        R,       // op r1
+        RI,      // op r1, imm
+        RF,      // op r1, float imm
+        MEM,     // op r1, imm(r2) or op r1, label+imm(r2)
+        RL,      // op r1, label
+        RRL,     // op r1, r2, label
+        L,       // op label
+        NONE,    // op
+        LABEL,   // label:
+        COMMENT  // # note
+    }
+
+    final String mnemonic;
+    final Shape shape;
+    final boolean defines;
+
+    private Opcode(String mnemonic, Shape shape, boolean defines)
+    {
+        this.mnemonic = mnemonic;
+        this.shape = shape;
+        this.defines = defines;
+    }
+
+    // Whether control can leave or enter the straight line code here
+    public boolean isControl()
+    {
+        return ordinal() >= BEQZ.ordinal() && this != COMMENT;
+    }
+
+    // A jump or a conditional branch to a label
+    public boolean isBranch()
+    {
+        return (shape == Shape.L || shape == Shape.RL || shape == Shape.RRL) && this != JAL;
+    }
+}
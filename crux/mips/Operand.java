@@ -0,0 +1,48 @@
+package mips;
+
+// What the code of an expression leaves for the code that consumes it: a
+// register, an immediate, or a memory operand. A memory operand is
+// label+offset(base), where the label or the base register may be missing.
+final class Operand {
+
+    final Register register;
+    final int value;
+    final String label;
+    final boolean memory;
+
+    private Operand(Register register, int value, String label, boolean memory)
+    {
+        this.register = register;
+        this.value = value;
+        this.label = label;
+        this.memory = memory;
+    }
+
+    static Operand register(Register reg)
+    {
+        return new Operand(reg, 0, null, false);
+    }
+
+    static Operand immediate(int value)
+    {
+        return new Operand(null, value, null, false);
+    }
+
+    // offset(base)
+    static Operand memory(Register base, int offset)
+    {
+        return new Operand(base, offset, null, true);
+    }
+
+    // label+offset(base), base may be null
+    static Operand memory(String label, int offset, Register base)
+    {
+        return new Operand(base, offset, label, true);
+    }
+
+    // The same memory operand, offset bytes further on
+    Operand plus(int offset)
+    {
+        return new Operand(register, value + offset, label, memory);
+    }
+}
@@ -0,0 +1,213 @@
+package mips;
+
+// Peephole optimization of a finished Program's code segment.
+// Each rule looks at the instruction at one position and at most window
+// instructions after it, skipping comments. Rules are applied over the
+// code of each function until none of them fires any more.
+public class Peephole {
+
+    public static final int DEFAULT_WINDOW = 8;
+
+    // A rule rewrites the code starting at position i and returns whether it
+    // did. The positions of deleted instructions are set to null.
+    private static abstract class Rule
+    {
+        final String name;
+        int fired;
+
+        Rule(String name)
+        {
+            this.name = name;
+        }
+
+        abstract boolean apply(Instruction[] code, int i, int window);
+    }
+
+    private final int window;
+    private final Rule[] rules = {
+        // addiu $sp, $sp, -4; sw R, 0($sp) ... lw S, 0($sp); addiu $sp, $sp, 4
+        // becomes move S, R, as long as R stays put and $sp is not touched
+        new Rule("push-pop") {
+            @Override
+            boolean apply(Instruction[] code, int i, int window) {
+                int store = next(code, i);
+                if (!isAdjustment(code[i], -4) || store < 0 || !isStackSlot(code[store], Opcode.SW, Opcode.S_S))
+                    return false;
+                Register reg = code[store].r1;
+                int j = next(code, store);
+                for (int n = 0; j >= 0 && n < window; n++, j = next(code, j)) {
+                    int pop = next(code, j);
+                    if (isStackSlot(code[j], Opcode.LW, Opcode.L_S) && pop >= 0 && isAdjustment(code[pop], 4)
+                            && (code[j].op == Opcode.L_S) == (code[store].op == Opcode.S_S)) {
+                        Register dst = code[j].r1;
+                        code[i] = null;
+                        code[store] = null;
+                        code[pop] = null;
+                        code[j] = dst == reg ? null
+                                : new Instruction(dst.isFloat() ? Opcode.MOV_S : Opcode.MOVE, dst, reg, null, 0, null, null);
+                        return true;
+                    }
+                    if (code[j].op.isControl() || code[j].mentions(Register.SP) || code[j].defined() == reg)
+                        return false;
+                }
+                return false;
+            }
+        },
+        // back to back adjustments of $sp become one, or none if they cancel
+        new Rule("sp-merge") {
+            @Override
+            boolean apply(Instruction[] code, int i, int window) {
+                if (!isAdjustment(code[i], null))
+                    return false;
+                int total = code[i].imm;
+                int last = i;
+                int j = next(code, i);
+                for (int n = 0; j >= 0 && n < window && isAdjustment(code[j], null); n++, j = next(code, j)) {
+                    total += code[j].imm;
+                    code[j] = null;
+                    last = j;
+                }
+                if (last == i && total != 0)
+                    return false;
+                code[i] = total == 0 ? null
+                        : new Instruction(Opcode.ADDIU, Register.SP, Register.SP, null, total, null, null);
+                return true;
+            }
+        },
+        // reads of the destination of a copy read its source instead
+        new Rule("copy-forward") {
+            @Override
+            boolean apply(Instruction[] code, int i, int window) {
+                Register dst = copyDestination(code[i]);
+                if (dst == null)
+                    return false;
+                Register src = code[i].r2;
+                boolean changed = false;
+                int j = next(code, i);
+                for (int n = 0; j >= 0 && n < window && !code[j].op.isControl(); n++, j = next(code, j)) {
+                    if (code[j].uses(dst)) {
+                        code[j] = code[j].replaceUses(dst, src);
+                        changed = true;
+                    }
+                    if (code[j].defined() == dst || code[j].defined() == src)
+                        break;
+                }
+                return changed;
+            }
+        },
+        // a copy to itself, or one overwritten before anything reads it
+        new Rule("dead-move") {
+            @Override
+            boolean apply(Instruction[] code, int i, int window) {
+                Register dst = copyDestination(code[i]);
+                if (dst == null)
+                    return false;
+                boolean dead = dst == code[i].r2;
+                int j = next(code, i);
+                for (int n = 0; !dead && j >= 0 && n < window && !code[j].op.isControl(); n++, j = next(code, j)) {
+                    if (code[j].uses(dst))
+                        break;
+                    dead = code[j].defined() == dst;
+                }
+                if (dead)
+                    code[i] = null;
+                return dead;
+            }
+        },
+        // j L, or a branch to L, right before L
+        new Rule("jump-to-next") {
+            @Override
+            boolean apply(Instruction[] code, int i, int window) {
+                if (!code[i].op.isBranch())
+                    return false;
+                for (int j = next(code, i); j >= 0 && code[j].op == Opcode.LABEL; j = next(code, j)) {
+                    if (code[j].label.equals(code[i].label)) {
+                        code[i] = null;
+                        return true;
+                    }
+                }
+                return false;
+            }
+        },
+    };
+
+    public Peephole()
+    {
+        this(DEFAULT_WINDOW);
+    }
+
+    public Peephole(int window)
+    {
+        this.window = window;
+    }
+
+    public void optimize(Program program)
+    {
+        for (Fragment fragment : program.fragments())
+            optimize(fragment);
+    }
+
+    // Functions are fragments of their own, so no rule needs to look
+    // across fragments
+    void optimize(Fragment fragment)
+    {
+        Instruction[] code = fragment.toArray();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < code.length; i++) {
+                for (Rule rule : rules) {
+                    if (code[i] == null || code[i].op == Opcode.COMMENT || code[i].op == Opcode.LABEL)
+                        break;
+                    if (rule.apply(code, i, window)) {
+                        rule.fired++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        fragment.setCode(code);
+    }
+
+    // How often each rule fired, one rule per line
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Rule rule : rules)
+            sb.append(String.format("%-14s %d%n", rule.name, rule.fired));
+        return sb.toString();
+    }
+
+    // Position of the next instruction or label after i, skipping comments
+    // and deleted instructions
+    private static int next(Instruction[] code, int i)
+    {
+        for (int j = i + 1; j < code.length; j++)
+            if (code[j] != null && code[j].op != Opcode.COMMENT)
+                return j;
+        return -1;
+    }
+
+    // addiu $sp, $sp, amount, or any amount if it is null
+    private static boolean isAdjustment(Instruction instr, Integer amount)
+    {
+        return instr != null && instr.op == Opcode.ADDIU && instr.r1 == Register.SP && instr.r2 == Register.SP
+                && (amount == null || instr.imm == amount);
+    }
+
+    private static boolean isStackSlot(Instruction instr, Opcode intOp, Opcode floatOp)
+    {
+        return (instr.op == intOp || instr.op == floatOp) && instr.r2 == Register.SP && instr.imm == 0
+                && instr.label == null;
+    }
+
+    // The destination of a register to register copy, or null
+    private static Register copyDestination(Instruction instr)
+    {
+        if (instr.op == Opcode.MOVE || instr.op == Opcode.MOV_S)
+            return instr.r1;
+        if (instr.op == Opcode.ADDI && instr.imm == 0)
+            return instr.r1;
+        return null;
+    }
+}
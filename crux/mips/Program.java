@@ -1,48 +1,270 @@
 package mips;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Vector;
+import java.util.List;
+
+import crux.LineTable;
 
 public class Program {
-    private Vector<String> codeSegment;
-    private Vector<String> dataSegment;
+    // the code segment is the concatenation of the fragments
+    private ArrayList<Fragment> codeSegment;
+    private Fragment current;
+    // the fragments divert switched away from, innermost first
+    private ArrayDeque<Fragment> diverted = new ArrayDeque<>();
+    private ArrayList<String> dataSegment;
+    
+    // when streaming, finished fragments are written to out and dropped
+    private AsmWriter out;
+    private Peephole peephole;
+    private boolean headWritten;
+    // when mapping, the origin of every instruction written goes to map
+    private AsmWriter map;
+    private LineTable lines;
+    private int instructionCount;
+    private StringBuilder mapLine;
     
-    private int labelCounter;
+    // the origin of the instructions appended from now on
+    private int origin = -1;
+    // whether the built-in functions take their argument in a register
+    private boolean registerArguments;
     
     public Program()
     {
-        labelCounter = -1;
-        codeSegment = new Vector<>();
-        dataSegment = new Vector<>();
+        codeSegment = new ArrayList<>();
+        dataSegment = new ArrayList<>();
+        beginFragment("label");
+    }
+    
+    // With registerArguments the built-in functions take their argument in
+    // $a0 or $f12 instead of on the stack
+    public void setRegisterArguments(boolean registerArguments)
+    {
+        this.registerArguments = registerArguments;
     }
     
-    // Returns a unique label
+    // Returns a label unique within the current fragment's scope
     public String newLabel()
     {
-        labelCounter++;
-        return "label." + labelCounter;
+        return current.newLabel();
+    }
+    
+    // Starts a new fragment, the code appended from now on goes there
+    // Its labels are named scope.0, scope.1, ...
+    public void beginFragment(String scope)
+    {
+        current = new Fragment(scope);
+        codeSegment.add(current);
+    }
+    
+    // Moves the data of part over to this program
+    void mergeData(Program part)
+    {
+        dataSegment.addAll(part.dataSegment);
+        part.dataSegment.clear();
+    }
+    
+    // Appends the code and data of part, code appended from now on goes to
+    // the last fragment of part. When streaming, every fragment before that
+    // one is finished and is written out.
+    void merge(Program part)
+    {
+        mergeData(part);
+        codeSegment.addAll(part.codeSegment);
+        current = part.current;
+        if (out == null)
+            return;
+        try {
+            if (!headWritten)
+                writeHead(out);
+            headWritten = true;
+            for (Fragment fragment : codeSegment)
+                if (fragment != current)
+                    write(fragment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        codeSegment.clear();
+        codeSegment.add(current);
+    }
+    
+    // From now on fragments are written to out as they are merged in, after
+    // running peephole over them unless it is null. The data segment has to
+    // be complete by the time the first function is merged.
+    public void streamTo(AsmWriter out, Peephole peephole)
+    {
+        this.out = out;
+        this.peephole = peephole;
+    }
+    
+    // Alongside a streamed program, writes for every instruction of the
+    // Crux program its index and the line and column it was generated for,
+    // as far as they are known
+    public void mapSourceTo(AsmWriter map, LineTable lines) throws IOException
+    {
+        this.map = map;
+        this.lines = lines;
+        this.mapLine = new StringBuilder();
+        map.println("# instruction line column");
+    }
+    
+    // Writes what is left of a streamed program
+    public void finish() throws IOException
+    {
+        if (!headWritten)
+            writeHead(out);
+        headWritten = true;
+        for (Fragment fragment : codeSegment)
+            write(fragment);
+        codeSegment.clear();
+        out.println("                              # END Code Segment");
+        out.flush();
+        if (map != null)
+            map.flush();
+    }
+    
+    private void write(Fragment fragment) throws IOException
+    {
+        if (peephole != null)
+            peephole.optimize(fragment);
+        out.println(fragment);
+        if (map == null)
+            return;
+        for (int i = 0; i < fragment.size(); i++) {
+            Opcode op = fragment.get(i).op;
+            if (op == Opcode.LABEL || op == Opcode.COMMENT)
+                continue;
+            int offset = fragment.origin(i);
+            if (offset >= 0) {
+                mapLine.setLength(0);
+                mapLine.append(instructionCount).append(' ')
+                       .append(lines.line(offset)).append(' ').append(lines.column(offset));
+                map.println(mapLine);
+            }
+            instructionCount++;
+        }
+    }
+    
+    // Sets the code appended from now on aside, in a fragment that shares
+    // the labels of the current one, until resume is called
+    void divert()
+    {
+        diverted.push(current);
+        current = new Fragment(current);
+    }
+    
+    // Goes back to appending where divert left off and returns the code
+    // that was set aside
+    Fragment resume()
+    {
+        Fragment aside = current;
+        current = diverted.pop();
+        return aside;
+    }
+    
+    // Appends code that was set aside, with the origins it had
+    void append(Fragment aside)
+    {
+        for (int i = 0; i < aside.size(); i++)
+            current.append(aside.get(i), aside.origin(i));
+    }
+    
+    // The fragments, in the order they make up the code segment
+    List<Fragment> fragments()
+    {
+        return codeSegment;
     }
     
     // Insert an instruction into the code segment
-    // Returns the position of the instruction in the stream
-    public int appendInstruction(String instr)
+    // Returns the position of the instruction in the current fragment
+    int append(Instruction instr)
+    {
+        return current.append(instr, origin);
+    }
+    
+    // Instructions appended from now on were generated for the AST node at
+    // source offset origin, or for no node in particular if it is -1
+    public void setOrigin(int origin)
     {
-        codeSegment.add(instr);
-        return codeSegment.size() - 1;
+        this.origin = origin;
     }
     
-    // Replaces the instruction at position pos
-    public void replaceInstruction(int pos, String instr)
+    // op r1, r2, r3 and the shorter register only forms
+    public int emit(Opcode op, Register r1, Register r2, Register r3)
     {
-        codeSegment.set(pos, instr);
+        return append(new Instruction(op, r1, r2, r3, 0, null, null));
     }
     
-    // Inserts an instruction at position pos
-    // All instructions after pos are shifted down
-    public void insertInstruction(int pos, String instr)
+    public int emit(Opcode op, Register r1, Register r2)
     {
-        codeSegment.add(pos, instr);
+        return append(new Instruction(op, r1, r2, null, 0, null, null));
+    }
+    
+    public int emit(Opcode op, Register r1)
+    {
+        return append(new Instruction(op, r1, null, null, 0, null, null));
+    }
+    
+    // op r1, r2, imm and op r1, imm(r2)
+    public int emit(Opcode op, Register r1, Register r2, int imm)
+    {
+        return append(new Instruction(op, r1, r2, null, imm, null, null));
+    }
+    
+    // li r1, imm
+    public int emit(Opcode op, Register r1, int imm)
+    {
+        return append(new Instruction(op, r1, null, null, imm, null, null));
+    }
+    
+    // li.s r1, value
+    public int emit(Opcode op, Register r1, float value)
+    {
+        return append(new Instruction(op, r1, null, null, Float.floatToIntBits(value), null, null));
+    }
+    
+    // op r1, address
+    int emit(Opcode op, Register r1, Operand address)
+    {
+        return append(new Instruction(op, r1, address.register, null, address.value, address.label, null));
+    }
+    
+    // op r1, label
+    public int emit(Opcode op, Register r1, String label)
+    {
+        return append(new Instruction(op, r1, null, null, 0, label, null));
+    }
+    
+    // op r1, r2, label
+    public int emit(Opcode op, Register r1, Register r2, String label)
+    {
+        return append(new Instruction(op, r1, r2, null, 0, label, null));
+    }
+    
+    // op label
+    public int emit(Opcode op, String label)
+    {
+        return append(new Instruction(op, null, null, null, 0, label, null));
+    }
+    
+    public int emit(Opcode op)
+    {
+        return append(new Instruction(op, null, null, null, 0, null, null));
+    }
+    
+    public int appendLabel(String label)
+    {
+        return append(new Instruction(Opcode.LABEL, null, null, null, 0, label, null));
+    }
+    
+    // A comment reading "prefix note", note is only formatted when printed
+    public int appendComment(String prefix, Object note)
+    {
+        return append(new Instruction(Opcode.COMMENT, null, null, null, 0, prefix, note));
     }
     
     // Append item to data segment
@@ -52,115 +274,132 @@ public class Program {
     }
     
     // Push an integer register on the stack
-    public void pushInt(String reg)
+    public void pushInt(Register reg)
     {
-//        throw new RuntimeException("Implement pushing int register value to stack");
-        appendInstruction("subu\t$sp, $sp, 4");
-        appendInstruction("sw  \t"+reg+", 0($sp)");
+        emit(Opcode.ADDIU, Register.SP, Register.SP, -4);
+        emit(Opcode.SW, reg, Register.SP, 0);
     }
     
     // Push a single precision floating point register on the stack
-    public void pushFloat(String reg)
+    public void pushFloat(Register reg)
     {
-//        throw new RuntimeException("Implement pushing float register value to stack");
-        appendInstruction("subu\t$sp, $sp, 4");
-        appendInstruction("s.s \t"+reg+", 0($sp)");
+        emit(Opcode.ADDIU, Register.SP, Register.SP, -4);
+        emit(Opcode.S_S, reg, Register.SP, 0);
     }
     
     // Pop an integer from the stack into register reg
-    public void popInt(String reg)
+    public void popInt(Register reg)
     {
-//        throw new RuntimeException("Implement popping int from stack to register");
-        appendInstruction("lw  \t"+reg+" ,0($sp)");
-        appendInstruction("addi\t$sp, $sp, 4");
+        emit(Opcode.LW, reg, Register.SP, 0);
+        emit(Opcode.ADDIU, Register.SP, Register.SP, 4);
     }
     
     // Pop a floating point value from the stack into register reg
-    public void popFloat(String reg)
+    public void popFloat(Register reg)
     {
-//        throw new RuntimeException("Implement popping floating point from stack to register");
-        appendInstruction("l.s  \t"+reg+" ,0($sp)");
-        appendInstruction("addi\t$sp, $sp, 4");
+        emit(Opcode.L_S, reg, Register.SP, 0);
+        emit(Opcode.ADDIU, Register.SP, Register.SP, 4);
     }
-
-    public void storeReg(String src, String des)  {
-        appendInstruction("addi\t"+des+", "+src+", 0");
+    
+    // Append a function prologue that takes frameSize bytes off $sp, saves
+    // $ra if saveReturnAddress and, if framePointer, saves $fp and points it
+    // at the top of the frame. The saved $fp and $ra are the top two words.
+    public void appendPrologue(int frameSize, boolean saveReturnAddress, boolean framePointer)
+    {
+        if (frameSize == 0)
+            return;
+        emit(Opcode.ADDIU, Register.SP, Register.SP, -frameSize);
+        if (framePointer)
+            emit(Opcode.SW, Register.FP, Register.SP, frameSize - 8);
+        if (saveReturnAddress)
+            emit(Opcode.SW, Register.RA, Register.SP, frameSize - 4);
+        if (framePointer)
+            emit(Opcode.ADDIU, Register.FP, Register.SP, frameSize);
     }
     
-    // Insert a function prologue at position pos
-    public void insertPrologue(int pos, int frameSize)
+    // Append the epilogue matching appendPrologue
+    public void appendEpilogue(int frameSize, boolean saveReturnAddress, boolean framePointer)
     {
-        ArrayList<String> prologue = new ArrayList<>();
-        prologue.add("subu $sp, $sp,8");
-        prologue.add("sw $fp, 0($sp)");
-        prologue.add("sw $ra, 4($sp)");
-        prologue.add("addi $fp, $sp, 8");
-        prologue.add("subu $sp, $sp, "+ String.valueOf(frameSize));
-        codeSegment.addAll(pos, prologue);
+        appendFrameRelease(frameSize, saveReturnAddress, framePointer);
+        emit(Opcode.JR, Register.RA);
     }
     
-    // Append a function epilogue
-    public void appendEpilogue(int frameSize)
+    // Append the epilogue without its return: restores what the prologue
+    // saved and gives the frame back
+    public void appendFrameRelease(int frameSize, boolean saveReturnAddress, boolean framePointer)
     {
-        appendInstruction("addu $sp, $sp, "+String.valueOf(frameSize));
-        appendInstruction("lw $ra, 4($sp)");
-        appendInstruction("lw $fp, 0($sp)");
-        appendInstruction("addu $sp, $sp, 8");
-        appendInstruction("jr $ra");
-
+        if (saveReturnAddress)
+            emit(Opcode.LW, Register.RA, Register.SP, frameSize - 4);
+        if (framePointer)
+            emit(Opcode.LW, Register.FP, Register.SP, frameSize - 8);
+        if (frameSize != 0)
+            emit(Opcode.ADDIU, Register.SP, Register.SP, frameSize);
     }
 
     // Insert code that terminates the program
     public void appendExitSequence()
     {
-        codeSegment.add("li    $v0, 10");
-        codeSegment.add("syscall");
+        emit(Opcode.LI, Register.V0, 10);
+        emit(Opcode.SYSCALL);
     }
     
     //Print the program to the provided stream
     public void print(PrintStream s)
     {
-        s.println(".data                         # BEGIN Data Segment");
+        AsmWriter w = new AsmWriter(Channels.newChannel(s));
+        try {
+            writeHead(w);
+            for (Fragment fragment : codeSegment)
+                w.println(fragment);
+            w.println("                              # END Code Segment");
+            w.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // The data segment, the built-in functions and the start of the program
+    private void writeHead(AsmWriter out) throws IOException
+    {
+        out.println(".data                         # BEGIN Data Segment");
         for (String data : dataSegment)
-            s.println(data);
-        s.println("data.newline:      .asciiz       \"\\n\"");
-        s.println("data.floatquery:   .asciiz       \"float?\"");
-        s.println("data.intquery:     .asciiz       \"int?\"");
-        s.println("data.trueString:   .asciiz       \"true\"");
-        s.println("data.falseString:  .asciiz       \"false\"");
-        s.println("                              # END Data Segment");
+            out.println(data);
+        out.println("data.newline:      .asciiz       \"\\n\"");
+        out.println("data.floatquery:   .asciiz       \"float?\"");
+        out.println("data.intquery:     .asciiz       \"int?\"");
+        out.println("data.trueString:   .asciiz       \"true\"");
+        out.println("data.falseString:  .asciiz       \"false\"");
+        out.println("                              # END Data Segment");
 
-        s.println(".text                         # BEGIN Code Segment");
+        out.println(".text                         # BEGIN Code Segment");
         // provide the built-in functions
-        funcPrintBool(s);
-        funcPrintFloat(s);
-        funcPrintInt(s);
-        funcPrintln(s);
-        funcReadFloat(s);
-        funcReadInt(s);
+        funcPrintBool(out);
+        funcPrintFloat(out);
+        funcPrintInt(out);
+        funcPrintln(out);
+        funcReadFloat(out);
+        funcReadInt(out);
 
-        s.println(".text                         # BEGIN Crux Program");
-        // write out the crux program
-        for (String code : codeSegment)
-            s.println(code);
-        s.println("                              # END Code Segment");
+        out.println(".text                         # BEGIN Crux Program");
     }
     
-    // Prints the current stack value, assuming it's an int
-    public void funcPrintInt(PrintStream s)
+    // Prints its argument, assuming it's an int
+    public void funcPrintInt(AsmWriter s) throws IOException
     {
         s.println("func.printInt:");
-        s.println("lw   $a0, 0($sp)");
+        if (!registerArguments)
+            s.println("lw   $a0, 0($sp)");
         s.println("li   $v0, 1");
         s.println("syscall");
         s.println("jr $ra");
     }
     
-    // Prints the current stack value assuming it's a bool
-    public void funcPrintBool(PrintStream s)
+    // Prints its argument assuming it's a bool
+    public void funcPrintBool(AsmWriter s) throws IOException
     {
         s.println("func.printBool:");
-        s.println("lw $a0, 0($sp)");
+        if (!registerArguments)
+            s.println("lw $a0, 0($sp)");
         s.println("beqz $a0, label.printBool.loadFalse");
         s.println("la $a0, data.trueString");
         s.println("j label.printBool.join");
@@ -172,18 +411,19 @@ public class Program {
         s.println("jr $ra");
     }
     
-    // Prints the current stack value assuming it's a float
-    private void funcPrintFloat(PrintStream s)
+    // Prints its argument assuming it's a float
+    private void funcPrintFloat(AsmWriter s) throws IOException
     {
         s.println("func.printFloat:");
-        s.println("l.s  $f12, 0($sp)");
+        if (!registerArguments)
+            s.println("l.s  $f12, 0($sp)");
         s.println("li   $v0,  2");
         s.println("syscall");
         s.println("jr $ra");
     }
     
     // Prints a newline
-    private void funcPrintln(PrintStream s)
+    private void funcPrintln(AsmWriter s) throws IOException
     {
         s.println("func.println:");
         s.println("la   $a0, data.newline");
@@ -193,7 +433,7 @@ public class Program {
     }
     
     // Reads an int onto the stack
-    private void funcReadInt(PrintStream s)
+    private void funcReadInt(AsmWriter s) throws IOException
     {
         s.println("func.readInt:");
         s.println("la   $a0, data.intquery");
@@ -205,7 +445,7 @@ public class Program {
     }
     
     // Reads a float onto the stack
-    private void funcReadFloat(PrintStream s)
+    private void funcReadFloat(AsmWriter s) throws IOException
     {
         s.println("func.readFloat:");
         s.println("la   $a0, data.floatquery");
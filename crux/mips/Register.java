@@ -0,0 +1,25 @@
+package mips;
+
+// The MIPS integer and single precision floating point registers
+public enum Register {
+    ZERO, V0, V1, A0, A1, A2, A3,
+    T0, T1, T2, T3, T4, T5, T6, T7, T8, T9,
+    S0, S1, S2, S3, S4, S5, S6, S7,
+    SP, FP, RA,
+
+    F0, F1, F2, F3, F4, F5, F6, F7, F8, F9, F10, F11, F12, F13, F14, F15,
+    F16, F17, F18, F19, F20, F21, F22, F23, F24, F25, F26, F27, F28, F29, F30, F31;
+
+    private final String text = "$" + name().toLowerCase();
+
+    public boolean isFloat()
+    {
+        return ordinal() >= F0.ordinal();
+    }
+
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+}
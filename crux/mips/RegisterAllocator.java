@@ -0,0 +1,250 @@
+package mips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import ast.*;
+
+// Linear-scan allocation of the expression temporaries of one function.
+// Every value the Selector has an expression computed into a register lives
+// from the point CodeGen computes it to the point its consumer reads it. Points count the nodes in the order
+// CodeGen's walker finishes them, so intervals are found sorted by start.
+// Values live across a call only get callee-saved registers. When no register
+// is free, the interval that ends last is spilled to a frame slot.
+// Without registers every value gets a slot while it is live, which lays the
+// expression stack out in the frame: slots are freed last in, first out.
+class RegisterAllocator {
+
+    // CodeGen uses $t0-$t3, $t5, $v1 and $f0-$f3 as scratch
+    private static final Register[] INT_TEMPS = {
+        Register.T4, Register.T6, Register.T7, Register.T8, Register.T9
+    };
+    private static final Register[] INT_SAVED = {
+        Register.S0, Register.S1, Register.S2, Register.S3,
+        Register.S4, Register.S5, Register.S6, Register.S7
+    };
+    private static final Register[] FLOAT_TEMPS = {
+        Register.F4, Register.F5, Register.F6, Register.F7, Register.F8, Register.F9,
+        Register.F10, Register.F11, Register.F16, Register.F17, Register.F18, Register.F19
+    };
+    private static final Register[] FLOAT_SAVED = {
+        Register.F20, Register.F21, Register.F22, Register.F23, Register.F24, Register.F25,
+        Register.F26, Register.F27, Register.F28, Register.F29, Register.F30, Register.F31
+    };
+
+    private static class Interval
+    {
+        int start;
+        int end = -1;
+        boolean isFloat;
+        boolean crossesCall;
+        Register register;
+        int slot = -1;
+
+        Interval(int start, boolean isFloat)
+        {
+            this.start = start;
+            this.isFloat = isFloat;
+        }
+    }
+
+    private Selector selector;
+    private boolean useRegisters;
+    private Register[] intSaved = INT_SAVED;
+    private LinkedHashMap<Command, Interval> intervals = new LinkedHashMap<>();
+    private ArrayList<Integer> calls = new ArrayList<>();
+    private ArrayList<Register> savedRegisters = new ArrayList<>();
+    private int slotCount;
+
+    // With freeFramePointer the function does not use $fp, which is then
+    // allocated as one more callee-saved register
+    public RegisterAllocator(FunctionDefinition func, Selector selector, boolean useRegisters,
+            boolean freeFramePointer)
+    {
+        this.selector = selector;
+        this.useRegisters = useRegisters;
+        if (freeFramePointer) {
+            intSaved = Arrays.copyOf(INT_SAVED, INT_SAVED.length + 1);
+            intSaved[INT_SAVED.length] = Register.FP;
+        }
+        findIntervals(func.body());
+        allocate();
+    }
+
+    // Register holding the value of node, or null if it was spilled
+    public Register register(Command node)
+    {
+        Interval interval = intervals.get(node);
+        return interval != null ? interval.register : null;
+    }
+
+    // Spill slot holding the value of node, or -1 if it has none
+    public int slot(Command node)
+    {
+        Interval interval = intervals.get(node);
+        return interval != null ? interval.slot : -1;
+    }
+
+    public int slotCount()
+    {
+        return slotCount;
+    }
+
+    // Callee-saved registers the function must preserve for its caller
+    public List<Register> savedRegisters()
+    {
+        return savedRegisters;
+    }
+
+    private void findIntervals(StatementList body)
+    {
+        new TreeWalker() {
+            int point = 0;
+
+            // node's value is read at the current point
+            private void consume(Command node)
+            {
+                Interval interval = intervals.get(node);
+                if (interval != null && interval.end < 0)
+                    interval.end = point;
+            }
+
+            @Override
+            protected void in(Command node, int index)
+            {
+                switch (node.kind()) {
+                    case IF_ELSE_BRANCH:
+                    case WHILE_LOOP:
+                        if (index == 0)
+                            consume(node.child(0));
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            protected void post(Command node)
+            {
+                point++;
+                if (node.kind() == Command.Kind.CALL) {
+                    calls.add(point);
+                    for (Expression arg : ((Call) node).arguments())
+                        consume((Command) arg);
+                } else {
+                    for (Command operand : selector.operands(node))
+                        consume(operand);
+                }
+                Selector.Goal goal = selector.goal(node);
+                if (goal == Selector.Goal.REG || goal == Selector.Goal.FREG)
+                    intervals.put(node, new Interval(point, goal == Selector.Goal.FREG));
+            }
+        }.walk(body);
+
+        for (Interval interval : intervals.values())
+            if (interval.end < 0)
+                interval.end = interval.start;
+
+        // calls.get(i) is the point of the i-th call, in increasing order
+        int next = 0;
+        for (Interval interval : intervals.values()) {
+            while (next < calls.size() && calls.get(next) <= interval.start)
+                next++;
+            interval.crossesCall = next < calls.size() && calls.get(next) < interval.end;
+        }
+    }
+
+    private void allocate()
+    {
+        ArrayList<Interval> active = new ArrayList<>();
+        EnumSet<Register> busy = EnumSet.noneOf(Register.class);
+        ArrayList<Integer> freeSlots = new ArrayList<>();
+
+        for (Interval current : intervals.values()) {
+            // expire the intervals that end before current starts
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Interval old = active.get(i);
+                if (old.end > current.start)
+                    continue;
+                if (old.register != null)
+                    busy.remove(old.register);
+                else
+                    freeSlots.add(old.slot);
+                active.remove(i);
+            }
+
+            if (!useRegisters) {
+                current.slot = takeSlot(freeSlots);
+                active.add(current);
+                continue;
+            }
+
+            Register[] temps = current.isFloat ? FLOAT_TEMPS : INT_TEMPS;
+            Register[] saved = current.isFloat ? FLOAT_SAVED : intSaved;
+            current.register = current.crossesCall ? null : firstFree(temps, busy);
+            if (current.register == null)
+                current.register = firstFree(saved, busy);
+
+            if (current.register == null) {
+                // spill whichever of current and the active intervals it
+                // could take a register from is live the longest
+                Interval victim = null;
+                for (Interval other : active) {
+                    if (other.register == null || other.isFloat != current.isFloat)
+                        continue;
+                    if (current.crossesCall && !contains(saved, other.register))
+                        continue;
+                    if (victim == null || other.end > victim.end)
+                        victim = other;
+                }
+                if (victim != null && victim.end > current.end) {
+                    current.register = victim.register;
+                    victim.register = null;
+                    victim.slot = takeSlot(freeSlots);
+                } else {
+                    current.slot = takeSlot(freeSlots);
+                }
+            }
+            if (current.register != null)
+                busy.add(current.register);
+            active.add(current);
+        }
+
+        EnumSet<Register> used = EnumSet.noneOf(Register.class);
+        for (Interval interval : intervals.values())
+            if (interval.register != null)
+                used.add(interval.register);
+        for (Register reg : intSaved)
+            if (used.contains(reg))
+                savedRegisters.add(reg);
+        for (Register reg : FLOAT_SAVED)
+            if (used.contains(reg))
+                savedRegisters.add(reg);
+    }
+
+    private static Register firstFree(Register[] pool, EnumSet<Register> busy)
+    {
+        for (Register reg : pool)
+            if (!busy.contains(reg))
+                return reg;
+        return null;
+    }
+
+    private static boolean contains(Register[] pool, Register reg)
+    {
+        for (Register r : pool)
+            if (r == reg)
+                return true;
+        return false;
+    }
+
+    private int takeSlot(ArrayList<Integer> freeSlots)
+    {
+        if (!freeSlots.isEmpty())
+            return freeSlots.remove(freeSlots.size() - 1);
+        return slotCount++;
+    }
+}
@@ -0,0 +1,689 @@
+package mips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+
+import ast.*;
+import types.*;
+
+// Instruction selection for the expressions of one function by tree pattern
+// matching. A rule derives a goal, the form some code wants a value in, for a
+// node of one kind from goals of its children, or for a node from another of
+// its own goals (a chain rule). Labeling finds bottom up the cheapest rule for
+// every node and goal, with the cost of a rule being about the instructions
+// it executes. Then, top down from the statements, the goal each node is
+// wanted in picks the rule it is generated with.
+//
+// A node wanted in a register is generated on its own when CodeGen's walker
+// gets to it, and its value is handed on like that of any expression. An
+// immediate or a memory operand is not: its code, if any, goes into that of
+// the node that consumes it. Nodes the table has no rule for, calls and the
+// value of an and/or among them, are generated by CodeGen's visitor with
+// their children as values. Conditions are lowered to branches by CodeGen;
+// the cond rules tell it which ones are cheaper to compute as a value and
+// test for zero.
+final class Selector {
+
+    enum Goal
+    {
+        REG,    // int or bool in a register
+        FREG,   // float in a register
+        IMM,    // int that fits a 16 bit immediate
+        ADDR,   // memory operand
+        COND,   // condition of an if or a while
+        STMT;   // statement
+
+        // Whether a node of this type can be derived as this goal
+        boolean accepts(Type type)
+        {
+            Type.Kind kind = type == null ? Type.Kind.VOID : type.kind();
+            switch (this) {
+                case REG:
+                    return kind == Type.Kind.INT || kind == Type.Kind.BOOL || kind == Type.Kind.ADDRESS;
+                case FREG:
+                    return kind == Type.Kind.FLOAT;
+                case IMM:
+                    return kind == Type.Kind.INT;
+                case ADDR:
+                    return kind == Type.Kind.ADDRESS;
+                case COND:
+                    return kind == Type.Kind.BOOL;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    static class Rule
+    {
+        final Goal goal;
+        // null for a chain rule
+        final Command.Kind kind;
+        // the goals of the children, or the one goal a chain rule derives from
+        final Goal[] kids;
+        final int cost;
+
+        Rule(Goal goal, Command.Kind kind, int cost, Goal... kids)
+        {
+            this.goal = goal;
+            this.kind = kind;
+            this.cost = cost;
+            this.kids = kids;
+        }
+
+        Rule(Goal goal, Goal from, int cost)
+        {
+            this(goal, null, cost, from);
+        }
+
+        boolean isChain()
+        {
+            return kind == null;
+        }
+
+        // Further conditions on node, beyond its kind and its children
+        // being derivable as kids
+        boolean matches(Command node)
+        {
+            return true;
+        }
+
+        // Emits the code of node and returns where it left the value. kids
+        // are the operands of the children, or of node itself for a chain
+        // rule, and a REG or FREG result goes to dst. Code may overwrite the
+        // registers of kids, nothing reads them after it.
+        Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst)
+        {
+            throw new UnsupportedOperationException(goal + " of " + node + " is lowered by CodeGen");
+        }
+    }
+
+    private static final int INFINITE = Integer.MAX_VALUE / 4;
+
+    // Array elements are words
+    private static final int ELEMENT_SHIFT = 2;
+
+    // The rule table. On equal cost the rule listed first wins.
+    private static final Rule[] RULES = {
+        // leaves
+        new Rule(Goal.IMM, Command.Kind.LITERAL_INT, 0) {
+            @Override
+            boolean matches(Command node) {
+                return fits(intValue(node));
+            }
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                return Operand.immediate(intValue(node));
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.LITERAL_INT, 1) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.LI, dst, intValue(node));
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.LITERAL_BOOL, 1) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.LI, dst, ((LiteralBool) node).value() == LiteralBool.Value.TRUE ? 1 : 0);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.FREG, Command.Kind.LITERAL_FLOAT, 1) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.LI_S, dst, ((LiteralFloat) node).value());
+                return Operand.register(dst);
+            }
+        },
+        // a variable is addressed off $fp or by its label, a parameter that
+        // stays in its argument register is that register
+        new Rule(Goal.ADDR, Command.Kind.ADDRESS_OF, 0) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                Operand address = frame.locate(((AddressOf) node).symbol());
+                if (address == null)
+                    throw new RuntimeException("AddressOf: Should never happened");
+                return address;
+            }
+        },
+        new Rule(Goal.REG, Goal.ADDR, 1) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.LA, dst, kids[0]);
+                return Operand.register(dst);
+            }
+        },
+
+        // integer arithmetic
+        new Rule(Goal.REG, Command.Kind.ADDITION, 1, Goal.REG, Goal.IMM) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.ADDIU, dst, kids[0].register, kids[1].value);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.ADDITION, 1, Goal.IMM, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.ADDIU, dst, kids[1].register, kids[0].value);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.ADDITION, 1, Goal.REG, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.ADDU, dst, kids[0].register, kids[1].register);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.SUBTRACTION, 1, Goal.REG, Goal.IMM) {
+            @Override
+            boolean matches(Command node) {
+                return fits(-(long) intValue(node.child(1)));
+            }
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.ADDIU, dst, kids[0].register, -kids[1].value);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.SUBTRACTION, 1, Goal.REG, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.SUBU, dst, kids[0].register, kids[1].register);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.MULTIPLICATION, 1, Goal.REG, Goal.IMM) {
+            @Override
+            boolean matches(Command node) {
+                return isPowerOfTwo(intValue(node.child(1)));
+            }
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.SLL, dst, kids[0].register, Integer.numberOfTrailingZeros(kids[1].value));
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.MULTIPLICATION, 1, Goal.IMM, Goal.REG) {
+            @Override
+            boolean matches(Command node) {
+                return isPowerOfTwo(intValue(node.child(0)));
+            }
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.SLL, dst, kids[1].register, Integer.numberOfTrailingZeros(kids[0].value));
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.MULTIPLICATION, 2, Goal.REG, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.MULT, kids[0].register, kids[1].register);
+                program.emit(Opcode.MFLO, dst);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.DIVISION, 2, Goal.REG, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.DIV, kids[0].register, kids[1].register);
+                program.emit(Opcode.MFLO, dst);
+                return Operand.register(dst);
+            }
+        },
+
+        // float arithmetic
+        new FloatRule(Command.Kind.ADDITION, Opcode.ADD_S),
+        new FloatRule(Command.Kind.SUBTRACTION, Opcode.SUB_S),
+        new FloatRule(Command.Kind.MULTIPLICATION, Opcode.MUL_S),
+        new FloatRule(Command.Kind.DIVISION, Opcode.DIV_S),
+
+        // comparisons as values
+        new Rule(Goal.REG, Command.Kind.COMPARISON, 1, Goal.REG, Goal.IMM) {
+            @Override
+            boolean matches(Command node) {
+                long value = intValue(node.child(1));
+                switch (((Comparison) node).operation()) {
+                    case LE:
+                    case GT:
+                        return fits(value + 1);
+                    case EQ:
+                    case NE:
+                        return fits(-value);
+                    default:
+                        return true;
+                }
+            }
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                Register lhs = kids[0].register;
+                int value = kids[1].value;
+                switch (((Comparison) node).operation()) {
+                    case LT:
+                        program.emit(Opcode.SLTI, dst, lhs, value);
+                        break;
+                    case GE:
+                        program.emit(Opcode.SLTI, dst, lhs, value);
+                        program.emit(Opcode.XORI, dst, dst, 1);
+                        break;
+                    case LE:
+                        program.emit(Opcode.SLTI, dst, lhs, value + 1);
+                        break;
+                    case GT:
+                        program.emit(Opcode.SLTI, dst, lhs, value + 1);
+                        program.emit(Opcode.XORI, dst, dst, 1);
+                        break;
+                    case EQ:
+                        program.emit(Opcode.ADDIU, dst, lhs, -value);
+                        program.emit(Opcode.SLTIU, dst, dst, 1);
+                        break;
+                    case NE:
+                        program.emit(Opcode.ADDIU, dst, lhs, -value);
+                        program.emit(Opcode.SLTU, dst, Register.ZERO, dst);
+                        break;
+                }
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.COMPARISON, 2, Goal.REG, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                Register lhs = kids[0].register;
+                Register rhs = kids[1].register;
+                switch (((Comparison) node).operation()) {
+                    case LT:
+                        program.emit(Opcode.SLT, dst, lhs, rhs);
+                        break;
+                    case GT:
+                        program.emit(Opcode.SLT, dst, rhs, lhs);
+                        break;
+                    case LE:
+                        program.emit(Opcode.SLT, dst, rhs, lhs);
+                        program.emit(Opcode.XORI, dst, dst, 1);
+                        break;
+                    case GE:
+                        program.emit(Opcode.SLT, dst, lhs, rhs);
+                        program.emit(Opcode.XORI, dst, dst, 1);
+                        break;
+                    case EQ:
+                        program.emit(Opcode.XOR, dst, lhs, rhs);
+                        program.emit(Opcode.SLTIU, dst, dst, 1);
+                        break;
+                    case NE:
+                        program.emit(Opcode.XOR, dst, lhs, rhs);
+                        program.emit(Opcode.SLTU, dst, Register.ZERO, dst);
+                        break;
+                }
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.COMPARISON, 4, Goal.FREG, Goal.FREG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                String ending = program.newLabel();
+                program.emit(Opcode.LI, dst, 1);
+                boolean flagMeansTrue = compareFloats(program, ((Comparison) node).operation(),
+                        kids[0].register, kids[1].register);
+                program.emit(flagMeansTrue ? Opcode.BC1T : Opcode.BC1F, ending);
+                program.emit(Opcode.LI, dst, 0);
+                program.appendLabel(ending);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.LOGICAL_NOT, 1, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.XORI, dst, kids[0].register, 1);
+                return Operand.register(dst);
+            }
+        },
+
+        // conditions, branched on by CodeGen
+        new Rule(Goal.COND, Command.Kind.LOGICAL_AND, 0, Goal.COND, Goal.COND),
+        new Rule(Goal.COND, Command.Kind.LOGICAL_OR, 0, Goal.COND, Goal.COND),
+        new Rule(Goal.COND, Command.Kind.LOGICAL_NOT, 0, Goal.COND),
+        new Rule(Goal.COND, Command.Kind.LITERAL_BOOL, 1),
+        new Rule(Goal.COND, Command.Kind.COMPARISON, 2, Goal.REG, Goal.REG),
+        new Rule(Goal.COND, Command.Kind.COMPARISON, 2, Goal.FREG, Goal.FREG),
+        new Rule(Goal.COND, Goal.REG, 1),
+
+        // memory
+        new Rule(Goal.ADDR, Command.Kind.INDEX, 0, Goal.ADDR, Goal.IMM) {
+            @Override
+            boolean matches(Command node) {
+                return fits((long) intValue(node.child(1)) << ELEMENT_SHIFT);
+            }
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                return kids[0].plus(kids[1].value << ELEMENT_SHIFT);
+            }
+        },
+        new Rule(Goal.ADDR, Command.Kind.INDEX, 2, Goal.ADDR, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                Register index = kids[1].register;
+                Operand base = kids[0];
+                program.emit(Opcode.SLL, index, index, ELEMENT_SHIFT);
+                if (base.register != null)
+                    program.emit(Opcode.ADDU, index, index, base.register);
+                return Operand.memory(base.label, base.value, index);
+            }
+        },
+        new Rule(Goal.REG, Command.Kind.DEREFERENCE, 1, Goal.ADDR) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                if (!kids[0].memory)
+                    program.emit(Opcode.MOVE, dst, kids[0].register);
+                else
+                    program.emit(Opcode.LW, dst, kids[0]);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.FREG, Command.Kind.DEREFERENCE, 1, Goal.ADDR) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                if (!kids[0].memory)
+                    program.emit(Opcode.MOV_S, dst, kids[0].register);
+                else
+                    program.emit(Opcode.L_S, dst, kids[0]);
+                return Operand.register(dst);
+            }
+        },
+        new Rule(Goal.STMT, Command.Kind.ASSIGNMENT, 1, Goal.ADDR, Goal.REG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.SW, kids[1].register, kids[0]);
+                return null;
+            }
+        },
+        new Rule(Goal.STMT, Command.Kind.ASSIGNMENT, 1, Goal.ADDR, Goal.FREG) {
+            @Override
+            Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+                program.emit(Opcode.S_S, kids[1].register, kids[0]);
+                return null;
+            }
+        },
+    };
+
+    // freg: op(freg, freg)
+    private static class FloatRule extends Rule
+    {
+        private final Opcode op;
+
+        FloatRule(Command.Kind kind, Opcode op)
+        {
+            super(Goal.FREG, kind, 1, Goal.FREG, Goal.FREG);
+            this.op = op;
+        }
+
+        @Override
+        Operand emit(Program program, ActivationRecord frame, Command node, Operand[] kids, Register dst) {
+            program.emit(op, dst, kids[0].register, kids[1].register);
+            return Operand.register(dst);
+        }
+    }
+
+    private static final EnumMap<Command.Kind, List<Rule>> RULES_BY_KIND = new EnumMap<>(Command.Kind.class);
+    private static final List<Rule> CHAIN_RULES = new ArrayList<>();
+    static {
+        for (Rule rule : RULES) {
+            if (rule.isChain())
+                CHAIN_RULES.add(rule);
+            else
+                RULES_BY_KIND.computeIfAbsent(rule.kind, kind -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    // The cheapest derivation of each goal of a node. A goal with a finite
+    // cost but no rule is generated by CodeGen's visitor.
+    private static class Label
+    {
+        final int[] cost = new int[Goal.values().length];
+        final Rule[] rule = new Rule[Goal.values().length];
+        // the goal the node is generated in on its own, if any
+        Goal goal;
+        // whether the code of the node's consumer generates it
+        boolean inline;
+
+        Label()
+        {
+            Arrays.fill(cost, INFINITE);
+        }
+    }
+
+    private TypeChecker tc;
+    private HashMap<Command, Label> labels = new HashMap<>();
+
+    public Selector(TypeChecker tc, FunctionDefinition func)
+    {
+        this.tc = tc;
+        label(func.body());
+        select(func.body());
+    }
+
+    // The goal node is generated in when the walker gets to it: REG, FREG,
+    // or STMT for a statement with a rule. null if it is part of the code
+    // of its consumer, or has no rule.
+    public Goal goal(Command node)
+    {
+        Label label = labels.get(node);
+        return label != null ? label.goal : null;
+    }
+
+    // The nodes whose values the code of node reads, in the order they are
+    // computed: the children of a node without a rule, none for one that
+    // is part of the code of its consumer
+    public List<Command> operands(Command node)
+    {
+        ArrayList<Command> operands = new ArrayList<>();
+        Label label = labels.get(node);
+        if (label == null || label.goal == null || label.rule[label.goal.ordinal()] == null) {
+            if (label == null || !label.inline)
+                for (int i = 0; i < node.childCount(); i++)
+                    operands.add(node.child(i));
+        } else {
+            leaves(node, label.goal, true, operands);
+        }
+        return operands;
+    }
+
+    // Emits the code of node, which has a goal, given the operands of the
+    // nodes operands(node) returned
+    public Operand emit(Program program, ActivationRecord frame, Command node, HashMap<Command, Operand> values,
+            Register dst)
+    {
+        Label label = labels.get(node);
+        return reduce(program, frame, node, label.goal, true, values, dst);
+    }
+
+    private void leaves(Command node, Goal goal, boolean root, List<Command> out)
+    {
+        if (!root && (goal == Goal.REG || goal == Goal.FREG)) {
+            out.add(node);
+            return;
+        }
+        Rule rule = labels.get(node).rule[goal.ordinal()];
+        if (rule.isChain()) {
+            leaves(node, rule.kids[0], false, out);
+            return;
+        }
+        for (int i = 0; i < rule.kids.length; i++)
+            leaves(node.child(i), rule.kids[i], false, out);
+    }
+
+    private Operand reduce(Program program, ActivationRecord frame, Command node, Goal goal, boolean root,
+            HashMap<Command, Operand> values, Register dst)
+    {
+        if (!root && (goal == Goal.REG || goal == Goal.FREG))
+            return values.get(node);
+        Rule rule = labels.get(node).rule[goal.ordinal()];
+        Operand[] kids = new Operand[rule.kids.length];
+        if (rule.isChain()) {
+            kids[0] = reduce(program, frame, node, rule.kids[0], false, values, null);
+        } else {
+            for (int i = 0; i < kids.length; i++)
+                kids[i] = reduce(program, frame, node.child(i), rule.kids[i], false, values, null);
+        }
+        return rule.emit(program, frame, node, kids, dst);
+    }
+
+    // Bottom up, the cheapest rule for every goal of every node
+    private void label(Command body)
+    {
+        new TreeWalker() {
+            @Override
+            protected void post(Command node)
+            {
+                Label label = new Label();
+                labels.put(node, label);
+                Type type = tc.getType(node);
+                List<Rule> rules = RULES_BY_KIND.get(node.kind());
+                if (rules != null) {
+                    for (Rule rule : rules) {
+                        if (!rule.goal.accepts(type) || rule.kids.length != node.childCount())
+                            continue;
+                        int cost = rule.cost;
+                        for (int i = 0; i < rule.kids.length; i++)
+                            cost += labels.get(node.child(i)).cost[rule.kids[i].ordinal()];
+                        if (cost < label.cost[rule.goal.ordinal()] && rule.matches(node)) {
+                            label.cost[rule.goal.ordinal()] = cost;
+                            label.rule[rule.goal.ordinal()] = rule;
+                        }
+                    }
+                }
+                close(label, type);
+
+                // without a rule for its value, or as a statement, CodeGen's
+                // visitor generates it
+                Goal natural = valueGoal(type) != null ? valueGoal(type) : Goal.STMT;
+                if (label.cost[natural.ordinal()] >= INFINITE) {
+                    int cost = 1;
+                    for (int i = 0; i < node.childCount(); i++)
+                        cost = Math.min(cost + labels.get(node.child(i)).cost[defaultGoal(node, i).ordinal()], INFINITE);
+                    label.cost[natural.ordinal()] = cost;
+                    close(label, type);
+                }
+            }
+        }.walk(body);
+    }
+
+    // Applies the chain rules until none makes a goal cheaper
+    private void close(Label label, Type type)
+    {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule rule : CHAIN_RULES) {
+                int cost = label.cost[rule.kids[0].ordinal()] + rule.cost;
+                if (rule.goal.accepts(type) && cost < label.cost[rule.goal.ordinal()]) {
+                    label.cost[rule.goal.ordinal()] = cost;
+                    label.rule[rule.goal.ordinal()] = rule;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Top down, the goal every node is wanted in picks its rules
+    private void select(Command body)
+    {
+        HashMap<Command, Goal> wanted = new HashMap<>();
+        wanted.put(body, Goal.STMT);
+        new TreeWalker() {
+            @Override
+            protected boolean pre(Command node)
+            {
+                Label label = labels.get(node);
+                Goal goal = wanted.remove(node);
+                label.inline = goal == Goal.IMM || goal == Goal.ADDR;
+                Rule rule = label.rule[goal.ordinal()];
+                while (rule != null && rule.isChain()) {
+                    if (goal == Goal.REG || goal == Goal.FREG)
+                        label.goal = goal;
+                    goal = rule.kids[0];
+                    rule = label.rule[goal.ordinal()];
+                }
+                if (goal == Goal.REG || goal == Goal.FREG || (goal == Goal.STMT && rule != null))
+                    label.goal = goal;
+                for (int i = 0; i < node.childCount(); i++)
+                    wanted.put(node.child(i), rule != null ? rule.kids[i] : defaultGoal(node, i));
+                return true;
+            }
+        }.walk(body);
+    }
+
+    // The goal a value of type is wanted in by code that reads it, or null
+    private static Goal valueGoal(Type type)
+    {
+        if (Goal.FREG.accepts(type))
+            return Goal.FREG;
+        if (Goal.REG.accepts(type))
+            return Goal.REG;
+        return null;
+    }
+
+    // The goal of a child of a node without a rule
+    private Goal defaultGoal(Command node, int index)
+    {
+        switch (node.kind()) {
+            case IF_ELSE_BRANCH:
+            case WHILE_LOOP:
+                if (index == 0)
+                    return Goal.COND;
+                return Goal.STMT;
+            default: {
+                Goal value = valueGoal(tc.getType(node.child(index)));
+                return value != null ? value : Goal.STMT;
+            }
+        }
+    }
+
+    // Sets the FPU flag comparing lhs with rhs and returns whether the flag
+    // being set means the comparison holds. > and >= swap the operands of
+    // c.lt.s and c.le.s, and != is the flag of c.eq.s clear, so comparisons
+    // with NaN come out false.
+    static boolean compareFloats(Program program, Comparison.Operation op, Register lhs, Register rhs)
+    {
+        switch (op) {
+            case LT:
+                program.emit(Opcode.C_LT_S, lhs, rhs);
+                return true;
+            case LE:
+                program.emit(Opcode.C_LE_S, lhs, rhs);
+                return true;
+            case GT:
+                program.emit(Opcode.C_LT_S, rhs, lhs);
+                return true;
+            case GE:
+                program.emit(Opcode.C_LE_S, rhs, lhs);
+                return true;
+            case EQ:
+                program.emit(Opcode.C_EQ_S, lhs, rhs);
+                return true;
+            default:
+                program.emit(Opcode.C_EQ_S, lhs, rhs);
+                return false;
+        }
+    }
+
+    private static int intValue(Command node)
+    {
+        return ((LiteralInt) node).value();
+    }
+
+    private static boolean fits(long value)
+    {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    private static boolean isPowerOfTwo(int value)
+    {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+}
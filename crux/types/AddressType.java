@@ -6,6 +6,7 @@ public class AddressType extends Type {
 	
 	public AddressType(Type base)
 	{
+		super(Kind.ADDRESS);
 		this.base = base;
 	}
 	
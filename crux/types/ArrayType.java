@@ -7,6 +7,7 @@ public class ArrayType extends Type {
 	
 	public ArrayType(int extent, Type base)
 	{
+		super(Kind.ARRAY);
 		this.extent = extent;
 		this.base = base;
 	}
@@ -4,6 +4,7 @@ public class BoolType extends Type {
 	
 	public BoolType()
 	{
+		super(Kind.BOOL);
 	}
 	
 	@Override
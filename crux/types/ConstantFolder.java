@@ -0,0 +1,233 @@
+package types;
+
+import java.util.HashSet;
+
+import ast.*;
+
+// Rewrites a checked AST so that operators on constants become literals and
+// operations that do not change their operand become the operand. Integer
+// arithmetic wraps around at 32 bits and float arithmetic is single
+// precision, as on MIPS. Operands that contain a call are never dropped.
+public class ConstantFolder {
+
+    private TypeChecker tc;
+    // the nodes that contain a call
+    private HashSet<Command> calls = new HashSet<Command>();
+    private int folded;
+
+    public ConstantFolder(TypeChecker tc)
+    {
+        this.tc = tc;
+    }
+
+    public void fold(Command ast)
+    {
+        new Walker().walk(ast);
+    }
+
+    // Number of nodes replaced so far
+    public int folded()
+    {
+        return folded;
+    }
+
+    // The children of node are folded before node looks at them
+    private class Walker extends TreeWalker
+    {
+        @Override
+        protected void post(Command node)
+        {
+            for (int i = 0; i < node.childCount(); i++) {
+                Command child = node.child(i);
+                Command replacement = replacement(child);
+                if (replacement != child) {
+                    node.setChild(i, replacement);
+                    folded++;
+                }
+                if (calls.contains(replacement))
+                    calls.add(node);
+            }
+            if (node.kind() == Command.Kind.CALL)
+                calls.add(node);
+        }
+    }
+
+    // What node can be replaced with, or node itself
+    private Command replacement(Command node)
+    {
+        switch (node.kind()) {
+            case ADDITION:
+            case SUBTRACTION:
+            case MULTIPLICATION:
+            case DIVISION:
+                return arithmetic(node, node.child(0), node.child(1));
+            case LOGICAL_AND:
+            case LOGICAL_OR:
+                return logical(node, node.child(0), node.child(1));
+            case LOGICAL_NOT: {
+                Boolean value = boolValue(node.child(0));
+                return value == null ? node : bool(node, !value);
+            }
+            case COMPARISON:
+                return comparison((Comparison) node, node.child(0), node.child(1));
+            default:
+                return node;
+        }
+    }
+
+    private Command arithmetic(Command node, Command left, Command right)
+    {
+        if (left.kind() == Command.Kind.LITERAL_INT && right.kind() == Command.Kind.LITERAL_INT) {
+            int a = ((LiteralInt) left).value();
+            int b = ((LiteralInt) right).value();
+            switch (node.kind()) {
+                case ADDITION:
+                    return integer(node, a + b);
+                case SUBTRACTION:
+                    return integer(node, a - b);
+                case MULTIPLICATION:
+                    return integer(node, a * b);
+                default:
+                    // div leaves lo undefined for these, so leave them to run
+                    if (b == 0 || (a == Integer.MIN_VALUE && b == -1))
+                        return node;
+                    return integer(node, a / b);
+            }
+        }
+        if (left.kind() == Command.Kind.LITERAL_FLOAT && right.kind() == Command.Kind.LITERAL_FLOAT) {
+            float a = ((LiteralFloat) left).value();
+            float b = ((LiteralFloat) right).value();
+            float value;
+            switch (node.kind()) {
+                case ADDITION:
+                    value = a + b;
+                    break;
+                case SUBTRACTION:
+                    value = a - b;
+                    break;
+                case MULTIPLICATION:
+                    value = a * b;
+                    break;
+                default:
+                    value = a / b;
+                    break;
+            }
+            // li.s cannot load an infinity or a NaN, so those are left to run
+            return Float.isFinite(value) ? real(node, value) : node;
+        }
+
+        // x + 0 and x - 0 are not x for floats when x is -0.0
+        switch (node.kind()) {
+            case ADDITION:
+                if (isInt(right, 0))
+                    return left;
+                if (isInt(left, 0))
+                    return right;
+                break;
+            case SUBTRACTION:
+                if (isInt(right, 0))
+                    return left;
+                break;
+            case MULTIPLICATION:
+                if (isInt(right, 1) || isFloat(right, 1))
+                    return left;
+                if (isInt(left, 1) || isFloat(left, 1))
+                    return right;
+                if ((isInt(right, 0) && !calls.contains(left)) || (isInt(left, 0) && !calls.contains(right)))
+                    return integer(node, 0);
+                break;
+            default:
+                if (isInt(right, 1) || isFloat(right, 1))
+                    return left;
+                break;
+        }
+        return node;
+    }
+
+    private Command logical(Command node, Command left, Command right)
+    {
+        Boolean a = boolValue(left);
+        Boolean b = boolValue(right);
+        // the operand that decides the result on its own when it is this
+        boolean decisive = node.kind() == Command.Kind.LOGICAL_OR;
+        if (a != null && b != null)
+            return bool(node, decisive ? a || b : a && b);
+        if (a != null)
+            return a == decisive ? (calls.contains(right) ? node : left) : right;
+        if (b != null)
+            return b == decisive ? (calls.contains(left) ? node : right) : left;
+        return node;
+    }
+
+    private Command comparison(Comparison node, Command left, Command right)
+    {
+        int order;
+        if (left.kind() == Command.Kind.LITERAL_INT && right.kind() == Command.Kind.LITERAL_INT) {
+            order = Integer.compare(((LiteralInt) left).value(), ((LiteralInt) right).value());
+        } else if (left.kind() == Command.Kind.LITERAL_FLOAT && right.kind() == Command.Kind.LITERAL_FLOAT) {
+            float a = ((LiteralFloat) left).value();
+            float b = ((LiteralFloat) right).value();
+            // every ordered comparison with a NaN is false
+            if (Float.isNaN(a) || Float.isNaN(b))
+                return bool(node, node.operation() == Comparison.Operation.NE);
+            order = a < b ? -1 : a > b ? 1 : 0;
+        } else {
+            return node;
+        }
+        switch (node.operation()) {
+            case LT:
+                return bool(node, order < 0);
+            case LE:
+                return bool(node, order <= 0);
+            case EQ:
+                return bool(node, order == 0);
+            case GE:
+                return bool(node, order >= 0);
+            case GT:
+                return bool(node, order > 0);
+            default:
+                return bool(node, order != 0);
+        }
+    }
+
+    private static boolean isInt(Command node, int value)
+    {
+        return node.kind() == Command.Kind.LITERAL_INT && ((LiteralInt) node).value() == value;
+    }
+
+    private static boolean isFloat(Command node, float value)
+    {
+        return node.kind() == Command.Kind.LITERAL_FLOAT && ((LiteralFloat) node).value() == value;
+    }
+
+    private static Boolean boolValue(Command node)
+    {
+        if (node.kind() != Command.Kind.LITERAL_BOOL)
+            return null;
+        return ((LiteralBool) node).value() == LiteralBool.Value.TRUE;
+    }
+
+    // Literals that take the place and the type of node
+
+    private Command integer(Command node, int value)
+    {
+        return typed(node, new LiteralInt(node.lineTable(), node.span(), value));
+    }
+
+    private Command real(Command node, float value)
+    {
+        return typed(node, new LiteralFloat(node.lineTable(), node.span(), value));
+    }
+
+    private Command bool(Command node, boolean value)
+    {
+        LiteralBool.Value literal = value ? LiteralBool.Value.TRUE : LiteralBool.Value.FALSE;
+        return typed(node, new LiteralBool(node.lineTable(), node.span(), literal));
+    }
+
+    private Command typed(Command node, Command literal)
+    {
+        tc.copyType(node, literal);
+        return literal;
+    }
+}
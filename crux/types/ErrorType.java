@@ -6,6 +6,7 @@ public class ErrorType extends Type {
 	
 	public ErrorType(String message)
 	{
+		super(Kind.ERROR);
 		this.message = message;
 	}
 	
@@ -4,6 +4,7 @@ public class FloatType extends Type {
 	
 	public FloatType()
 	{
+		super(Kind.FLOAT);
 	}
 	
 	@Override
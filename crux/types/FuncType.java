@@ -7,6 +7,7 @@ public class FuncType extends Type {
    
    public FuncType(TypeList args, Type returnType)
    {
+      super(Kind.FUNC);
       this.args = args;
       this.ret = returnType;
    }
@@ -0,0 +1,444 @@
+package types;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import ast.*;
+import crux.Symbol;
+
+// Rewrites a checked AST so that calls to small functions become copies of
+// their bodies. The arguments are stored to fresh variables, or put in place
+// of the parameters when they are literals or caller locals the body does
+// not assign, and the body goes in an InlinedCall whose returns store to a
+// fresh result variable that then takes the place of the call. Only the
+// first call a statement makes is moved ahead of it, and only when that
+// keeps the order in which everything is evaluated.
+public class Inliner {
+
+    public static final int DEFAULT_BUDGET = 40;
+    public static final int DEFAULT_GROWTH = 400;
+
+    private TypeChecker tc;
+    // largest body, in nodes, to inline at a call run once
+    private int budget;
+    // most nodes inlining may add to any one function
+    private int growth;
+    // the functions defined so far, as they are after inlining
+    private HashMap<Symbol, FunctionDefinition> functions = new HashMap<>();
+    private HashMap<Symbol, Integer> sizes = new HashMap<>();
+    private HashMap<Symbol, Integer> callSites = new HashMap<>();
+    private HashSet<Symbol> globals = new HashSet<>();
+    private int inlined;
+
+    // the function calls are being inlined into
+    private HashSet<Symbol> callerLocals;
+    private int grown;
+
+    public Inliner(TypeChecker tc, int budget, int growth)
+    {
+        this.tc = tc;
+        this.budget = budget;
+        this.growth = growth;
+    }
+
+    public void inline(Command ast)
+    {
+        new TreeWalker() {
+            @Override
+            protected void post(Command node)
+            {
+                if (node.kind() == Command.Kind.CALL)
+                    callSites.merge(((Call) node).function(), 1, Integer::sum);
+            }
+        }.walk(ast);
+
+        for (int i = 0; i < ast.childCount(); i++) {
+            Command declaration = ast.child(i);
+            if (declaration.kind() != Command.Kind.FUNCTION_DEFINITION) {
+                globals.add(((Declaration) declaration).symbol());
+                continue;
+            }
+            FunctionDefinition func = (FunctionDefinition) declaration;
+            callerLocals = new HashSet<>(func.arguments());
+            callerLocals.addAll(declared(func.body()));
+            grown = 0;
+            block(func.body(), false);
+            functions.put(func.symbol(), func);
+            sizes.put(func.symbol(), size(func.body()));
+        }
+    }
+
+    // Number of calls replaced so far
+    public int inlined()
+    {
+        return inlined;
+    }
+
+    private void block(StatementList list, boolean loop)
+    {
+        for (int i = 0; i < list.childCount(); i++) {
+            // what replaces a call is looked at again, from its first statement
+            if (inlineFirstCall(list, i, loop)) {
+                i--;
+                continue;
+            }
+            Command statement = list.child(i);
+            switch (statement.kind()) {
+                case IF_ELSE_BRANCH:
+                    block(((IfElseBranch) statement).thenBlock(), loop);
+                    block(((IfElseBranch) statement).elseBlock(), loop);
+                    break;
+                case WHILE_LOOP:
+                    block(((WhileLoop) statement).body(), true);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // The part of statement that runs once before anything else it does, or
+    // null. A loop condition runs again after the body, so it has none.
+    private static Command region(Command statement)
+    {
+        switch (statement.kind()) {
+            case CALL:
+            case ASSIGNMENT:
+                return statement;
+            case RETURN:
+            case IF_ELSE_BRANCH:
+                return statement.child(0);
+            default:
+                return null;
+        }
+    }
+
+    // The first call the statement at index makes, found in evaluation order
+    private class FirstCall extends TreeWalker
+    {
+        Call call;
+        // the nodes around call, innermost first
+        ArrayDeque<Command> path = new ArrayDeque<>();
+        boolean conditional;
+        // whether a global is read before call's arguments are evaluated
+        boolean readsGlobal;
+        private int globalReads;
+        private int globalReadsAtCall;
+
+        @Override
+        protected boolean pre(Command node)
+        {
+            if (call != null)
+                return false;
+            if (node.kind() == Command.Kind.CALL)
+                globalReadsAtCall = globalReads;
+            path.push(node);
+            return true;
+        }
+
+        @Override
+        protected void post(Command node)
+        {
+            if (call != null)
+                return;
+            path.pop();
+            if (node.kind() == Command.Kind.CALL) {
+                call = (Call) node;
+                readsGlobal = globalReadsAtCall > 0;
+                Command child = node;
+                for (Command parent : path) {
+                    boolean shortCircuits = parent.kind() == Command.Kind.LOGICAL_AND
+                            || parent.kind() == Command.Kind.LOGICAL_OR;
+                    if (shortCircuits && parent.child(1) == child)
+                        conditional = true;
+                    child = parent;
+                }
+            } else if (node.kind() == Command.Kind.DEREFERENCE && globals.contains(root(node.child(0)))) {
+                globalReads++;
+            }
+        }
+    }
+
+    // The variable an address is computed from
+    private static Symbol root(Command address)
+    {
+        while (address.kind() == Command.Kind.INDEX)
+            address = address.child(0);
+        return address.kind() == Command.Kind.ADDRESS_OF ? ((AddressOf) address).symbol() : null;
+    }
+
+    private boolean inlineFirstCall(StatementList list, int index, boolean loop)
+    {
+        Command statement = list.child(index);
+        Command region = region(statement);
+        if (region == null)
+            return false;
+        FirstCall first = new FirstCall();
+        first.walk(region);
+        if (first.call == null || first.conditional || first.readsGlobal)
+            return false;
+        Call call = first.call;
+        FunctionDefinition callee = functions.get(call.function());
+        if (callee == null || callee.symbol().name().equals("main") || calls(callee.body(), callee.symbol()))
+            return false;
+        // calls in loops and calls to functions called once are worth more
+        int size = sizes.get(callee.symbol());
+        int limit = budget;
+        if (loop)
+            limit *= 2;
+        if (callSites.get(callee.symbol()) == 1)
+            limit *= 2;
+        if (size > limit || grown + size > growth)
+            return false;
+
+        HashMap<Symbol, Symbol> renamed = new HashMap<>();
+        HashMap<Symbol, Command> substituted = new HashMap<>();
+        HashSet<Symbol> assigned = assigned(callee.body());
+        int at = index;
+        List<Symbol> params = callee.arguments();
+        for (int i = 0; i < params.size(); i++) {
+            Symbol param = params.get(i);
+            Command arg = call.arguments().child(i);
+            if (!assigned.contains(param) && (isLiteral(arg) || callerLocals.contains(readOf(arg)))) {
+                substituted.put(param, arg);
+                continue;
+            }
+            Symbol temp = fresh(callee, param);
+            renamed.put(param, temp);
+            at = insert(list, at, new VariableDeclaration(call.lineTable(), call.span(), temp));
+            Command dest = new AddressOf(call.lineTable(), call.span(), temp);
+            at = insert(list, at, new Assignment(call.lineTable(), call.span(), (Expression) dest, (Expression) arg));
+        }
+
+        boolean valueUsed = statement != call;
+        Symbol result = null;
+        if (valueUsed) {
+            result = new Symbol(callee.symbol().name() + ".result");
+            result.setType(((FuncType) callee.symbol().type()).returnType());
+            callerLocals.add(result);
+            at = insert(list, at, new VariableDeclaration(call.lineTable(), call.span(), result));
+        }
+        StatementList body = (StatementList) new Copier(callee, renamed, substituted).copy(callee.body());
+        at = insert(list, at, new InlinedCall(call.lineTable(), call.span(), callee.symbol(), result, body));
+
+        if (valueUsed) {
+            Command read = new Dereference(call.lineTable(), call.span(),
+                    new AddressOf(call.lineTable(), call.span(), result));
+            tc.check(read);
+            Command parent = first.path.isEmpty() ? statement : first.path.peek();
+            for (int i = 0; i < parent.childCount(); i++) {
+                if (parent.child(i) == call)
+                    parent.setChild(i, read);
+            }
+        } else {
+            list.remove(at);
+        }
+        grown += size;
+        inlined++;
+        return true;
+    }
+
+    // Puts a checked statement in list at index and returns the index after it
+    private int insert(StatementList list, int index, Command statement)
+    {
+        tc.check(statement);
+        list.add(index, (Statement) statement);
+        return index + 1;
+    }
+
+    private Symbol fresh(FunctionDefinition callee, Symbol original)
+    {
+        Symbol sym = new Symbol(callee.symbol().name() + "." + original.name());
+        sym.setType(original.type());
+        callerLocals.add(sym);
+        return sym;
+    }
+
+    private static boolean isLiteral(Command node)
+    {
+        return node.kind() == Command.Kind.LITERAL_INT || node.kind() == Command.Kind.LITERAL_FLOAT
+                || node.kind() == Command.Kind.LITERAL_BOOL;
+    }
+
+    // The variable node reads, if it only reads a scalar variable
+    private static Symbol readOf(Command node)
+    {
+        if (node.kind() != Command.Kind.DEREFERENCE || node.child(0).kind() != Command.Kind.ADDRESS_OF)
+            return null;
+        return ((AddressOf) node.child(0)).symbol();
+    }
+
+    private static int size(Command tree)
+    {
+        int[] count = new int[1];
+        new TreeWalker() {
+            @Override
+            protected void post(Command node)
+            {
+                count[0]++;
+            }
+        }.walk(tree);
+        return count[0];
+    }
+
+    private static boolean calls(Command tree, Symbol func)
+    {
+        boolean[] found = new boolean[1];
+        new TreeWalker() {
+            @Override
+            protected void post(Command node)
+            {
+                if (node.kind() == Command.Kind.CALL && ((Call) node).function() == func)
+                    found[0] = true;
+            }
+        }.walk(tree);
+        return found[0];
+    }
+
+    private static HashSet<Symbol> declared(Command tree)
+    {
+        HashSet<Symbol> symbols = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            protected void post(Command node)
+            {
+                if (node.kind() == Command.Kind.VARIABLE_DECLARATION || node.kind() == Command.Kind.ARRAY_DECLARATION)
+                    symbols.add(((Declaration) node).symbol());
+            }
+        }.walk(tree);
+        return symbols;
+    }
+
+    private static HashSet<Symbol> assigned(Command tree)
+    {
+        HashSet<Symbol> symbols = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            protected void post(Command node)
+            {
+                if (node.kind() == Command.Kind.ASSIGNMENT && node.child(0).kind() == Command.Kind.ADDRESS_OF)
+                    symbols.add(((AddressOf) node.child(0)).symbol());
+            }
+        }.walk(tree);
+        return symbols;
+    }
+
+    // Copies the body of a function to inline it: its parameters and locals
+    // become fresh variables of the caller, and the parameters that take
+    // their argument as it is read that instead. Copies keep the spans of
+    // the nodes they copy.
+    private class Copier
+    {
+        private FunctionDefinition callee;
+        private HashMap<Symbol, Symbol> renamed;
+        private HashMap<Symbol, Command> substituted;
+
+        Copier(FunctionDefinition callee, HashMap<Symbol, Symbol> renamed, HashMap<Symbol, Command> substituted)
+        {
+            this.callee = callee;
+            this.renamed = renamed;
+            this.substituted = substituted;
+        }
+
+        private Symbol symbol(Symbol sym)
+        {
+            Symbol copy = renamed.get(sym);
+            return copy != null ? copy : sym;
+        }
+
+        private Expression expression(Command node)
+        {
+            return (Expression) copy(node);
+        }
+
+        private StatementList statements(StatementList list)
+        {
+            StatementList copy = new StatementList(list.lineTable(), list.span());
+            for (Statement statement : list)
+                copy.add((Statement) copy((Command) statement));
+            return copy;
+        }
+
+        Command copy(Command node)
+        {
+            crux.LineTable lines = node.lineTable();
+            long span = node.span();
+            switch (node.kind()) {
+                case STATEMENT_LIST:
+                    return statements((StatementList) node);
+                case EXPRESSION_LIST: {
+                    ExpressionList copy = new ExpressionList(lines, span);
+                    for (Expression arg : (ExpressionList) node)
+                        copy.add(expression((Command) arg));
+                    return copy;
+                }
+                case VARIABLE_DECLARATION: {
+                    Symbol sym = ((VariableDeclaration) node).symbol();
+                    renamed.put(sym, fresh(callee, sym));
+                    return new VariableDeclaration(lines, span, symbol(sym));
+                }
+                case ARRAY_DECLARATION: {
+                    Symbol sym = ((ArrayDeclaration) node).symbol();
+                    renamed.put(sym, fresh(callee, sym));
+                    return new ArrayDeclaration(lines, span, symbol(sym));
+                }
+                case ADDRESS_OF:
+                    return new AddressOf(lines, span, symbol(((AddressOf) node).symbol()));
+                case LITERAL_BOOL:
+                    return new LiteralBool(lines, span, ((LiteralBool) node).value());
+                case LITERAL_FLOAT:
+                    return new LiteralFloat(lines, span, ((LiteralFloat) node).value());
+                case LITERAL_INT:
+                    return new LiteralInt(lines, span, ((LiteralInt) node).value());
+                case DEREFERENCE: {
+                    Command argument = substituted.get(readOf(node));
+                    if (argument != null)
+                        return copy(argument);
+                    return new Dereference(lines, span, expression(node.child(0)));
+                }
+                case INDEX:
+                    return new Index(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case ADDITION:
+                    return new Addition(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case SUBTRACTION:
+                    return new Subtraction(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case MULTIPLICATION:
+                    return new Multiplication(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case DIVISION:
+                    return new Division(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case LOGICAL_AND:
+                    return new LogicalAnd(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case LOGICAL_OR:
+                    return new LogicalOr(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case LOGICAL_NOT:
+                    return new LogicalNot(lines, span, expression(node.child(0)));
+                case COMPARISON:
+                    return new Comparison(lines, span, expression(node.child(0)),
+                            ((Comparison) node).operation(), expression(node.child(1)));
+                case CALL:
+                    return new Call(lines, span, ((Call) node).function(),
+                            (ExpressionList) copy(node.child(0)));
+                case ASSIGNMENT:
+                    return new Assignment(lines, span, expression(node.child(0)), expression(node.child(1)));
+                case IF_ELSE_BRANCH:
+                    return new IfElseBranch(lines, span, expression(node.child(0)),
+                            statements((StatementList) node.child(1)), statements((StatementList) node.child(2)));
+                case WHILE_LOOP:
+                    return new WhileLoop(lines, span, expression(node.child(0)),
+                            statements((StatementList) node.child(1)));
+                case RETURN:
+                    return new Return(lines, span, expression(node.child(0)));
+                case INLINED_CALL: {
+                    InlinedCall call = (InlinedCall) node;
+                    StatementList body = statements(call.body());
+                    return new InlinedCall(lines, span, call.function(),
+                            call.result() != null ? symbol(call.result()) : null, body);
+                }
+                default:
+                    throw new IllegalArgumentException("Cannot inline a " + node);
+            }
+        }
+    }
+}
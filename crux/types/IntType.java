@@ -3,6 +3,7 @@ package types;
 public class IntType extends Type {
 
 	public IntType() {
+		super(Kind.INT);
 	}
 
 	@Override
@@ -2,11 +2,37 @@ package types;
 
 public abstract class Type {
 	
+	// Tag for switch-based dispatch over the concrete type classes
+	public enum Kind
+	{
+		INT,
+		FLOAT,
+		BOOL,
+		VOID,
+		ADDRESS,
+		ARRAY,
+		FUNC,
+		LIST,
+		ERROR;
+	}
+	
+	private final Kind kind;
+	
+	protected Type(Kind kind)
+	{
+		this.kind = kind;
+	}
+	
+	public final Kind kind()
+	{
+		return kind;
+	}
+	
 	public static Type getBaseType(String typeStr)
 	{
 		if (typeStr.equals("int")) return new IntType();
 		if (typeStr.equals("float")) return new FloatType();
-		if (typeStr.equals("bool")) return new BoolType();
+		if (typeStr.equals("bool")) return new BoolType();
 		if (typeStr.equals("void")) return new VoidType();
 		return new ErrorType("Unkown type: " + typeStr);
 	}
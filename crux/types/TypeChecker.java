@@ -1,6 +1,8 @@
 package types;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Stack;
 import ast.*;
 
 public class TypeChecker implements CommandVisitor {
@@ -8,6 +10,8 @@ public class TypeChecker implements CommandVisitor {
     private HashMap<Command, Type> typeMap = new HashMap<Command, Type>();
     private StringBuffer errorBuffer = new StringBuffer();
     private crux.Symbol currentFunction = crux.Symbol.newError("FunctionReturnType not set.");
+    private Stack<crux.Symbol> enclosingFunctions = new Stack<crux.Symbol>();
+    private HashSet<Command> allPathsReturn = new HashSet<Command>();
 
     private void reportError(int lineNum, int charPos, String message)
     {
@@ -52,25 +56,6 @@ public class TypeChecker implements CommandVisitor {
             "Function main has invalid signature.");
     }
     
-    private boolean allPathsReturn(Command node)
-    {
-        if (node instanceof Return)
-            return true;
-        if (node instanceof StatementList) {
-            boolean result = false;
-            StatementList list = (StatementList)node;
-            for (Statement s : list)
-                result = result || allPathsReturn((Command)s);
-            return result;
-        }
-        if (node instanceof IfElseBranch) {
-            IfElseBranch branch = (IfElseBranch)node;
-            return allPathsReturn(branch.thenBlock()) && allPathsReturn(branch.elseBlock());
-        }
-        
-        return false;
-    }
-    
     private void put(Command node, Type type)
     {
         if (type instanceof ErrorType) {
@@ -85,9 +70,15 @@ public class TypeChecker implements CommandVisitor {
         return typeMap.get(node);
     }
     
+    // Gives a node that replaces original after checking the same type
+    void copyType(Command original, Command replacement)
+    {
+        typeMap.put(replacement, typeMap.get(original));
+    }
+    
     public boolean check(Command ast)
     {
-        ast.accept(this);
+        new Walker().walk(ast);
         return !hasError();
     }
     
@@ -101,26 +92,63 @@ public class TypeChecker implements CommandVisitor {
         return errorBuffer.toString();
     }
 
+    // Types are computed bottom-up: each visit runs after the children of
+    // node have been checked, except for the function entry work in pre.
+    private class Walker extends TreeWalker
+    {
+        @Override
+        protected boolean pre(Command node)
+        {
+            if (node.kind() == Command.Kind.FUNCTION_DEFINITION)
+                enterFunction((FunctionDefinition)node);
+            else if (node.kind() == Command.Kind.INLINED_CALL)
+                enterInlinedCall((InlinedCall)node);
+            return true;
+        }
+
+        @Override
+        protected void post(Command node)
+        {
+            Dispatch.visit(node, TypeChecker.this);
+        }
+    }
+
+    private void enterFunction(FunctionDefinition node)
+    {
+        put(node, new VoidType());
+        enclosingFunctions.push(currentFunction);
+        currentFunction = node.symbol();
+        checkForBadArgument(node);
+        checkMainSignature(node);
+    }
+
+    // The returns of an inlined body are those of the function inlined
+    private void enterInlinedCall(InlinedCall node)
+    {
+        enclosingFunctions.push(currentFunction);
+        currentFunction = node.function();
+    }
+
     @Override
     public void visit(ExpressionList node) {
         TypeList tlist = new TypeList();
-        for (Expression e : node) {
-            e.accept(this);
+        for (Expression e : node)
             tlist.append(typeMap.get(e));
-        }
         put(node, tlist);
     }
 
     @Override
     public void visit(DeclarationList node) {
-        for (Declaration d : node)
-            d.accept(this);
     }
 
     @Override
     public void visit(StatementList node) {
-        for (Statement s : node)
-            s.accept(this);
+        for (Statement s : node) {
+            if (allPathsReturn.contains(s)) {
+                allPathsReturn.add(node);
+                break;
+            }
+        }
     }
 
     @Override
@@ -180,118 +208,90 @@ public class TypeChecker implements CommandVisitor {
 
     @Override
     public void visit(FunctionDefinition node) {
-        put(node, new VoidType());
-        crux.Symbol rememberFunction = currentFunction;
-        currentFunction = node.symbol();
-        checkForBadArgument(node);
-        checkMainSignature(node);
-
-        node.body().accept(this);
-        if (!(currentReturnType() instanceof VoidType) && !allPathsReturn(node.body())) {
+        if (!(currentReturnType() instanceof VoidType) && !allPathsReturn.contains(node.body())) {
             reportError(node.lineNumber(), node.charPosition(),
                 "Not all paths in function " + currentFunction.name() + " have a return.");
         }
-        currentFunction = rememberFunction;
+        currentFunction = enclosingFunctions.pop();
     }
 
     @Override
     public void visit(Comparison node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.compare(rightType));
     }
     
     @Override
     public void visit(Addition node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.add(rightType));
     }
     
     @Override
     public void visit(Subtraction node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.sub(rightType));
     }
     
     @Override
     public void visit(Multiplication node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.mul(rightType));
     }
     
     @Override
     public void visit(Division node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.div(rightType));
     }
     
     @Override
     public void visit(LogicalAnd node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.and(rightType));
     }
 
     @Override
     public void visit(LogicalOr node) {
-        node.leftSide().accept(this);
         Type leftType = typeMap.get(node.leftSide());
-        node.rightSide().accept(this);
         Type rightType = typeMap.get(node.rightSide());
         put(node, leftType.or(rightType));
     }
 
     @Override
     public void visit(LogicalNot node) {
-        node.expression().accept(this);
         Type exprType = typeMap.get(node.expression());
         put(node, exprType.not());
     }
     
     @Override
     public void visit(Dereference node) {
-        node.expression().accept(this);
         Type exprType = typeMap.get(node.expression());
         put(node, exprType.deref());
     }
 
     @Override
     public void visit(Index node) {
-        node.base().accept(this);
         Type baseType = typeMap.get(node.base());
-        node.amount().accept(this);
         Type amountType = typeMap.get(node.amount());
         put(node,  baseType.index(amountType));
     }
 
     @Override
     public void visit(Assignment node) {
-        node.destination().accept(this);
         Type destType = typeMap.get(node.destination());
-        node.source().accept(this);
         Type srcType = typeMap.get(node.source());
         put(node, destType.assign(srcType));
     }
 
     @Override
     public void visit(Call node) {
-        node.arguments().accept(this);
         Type args = typeMap.get(node.arguments());
         put(node, node.function().type().call(args));
     }
@@ -299,10 +299,9 @@ public class TypeChecker implements CommandVisitor {
     @Override
     public void visit(IfElseBranch node) {
         assert(false);
-        node.condition().accept(this);
         Type condType = typeMap.get(node.condition());
-        node.thenBlock().accept(this);
-        node.elseBlock().accept(this);
+        if (allPathsReturn.contains(node.thenBlock()) && allPathsReturn.contains(node.elseBlock()))
+            allPathsReturn.add(node);
         
         if (!(condType instanceof BoolType))
             put(node, new ErrorType("IfElseBranch requires bool condition not " + condType + "."));
@@ -312,9 +311,7 @@ public class TypeChecker implements CommandVisitor {
 
     @Override
     public void visit(WhileLoop node) {
-        node.condition().accept(this);
         Type condType = typeMap.get(node.condition());
-        node.body().accept(this);
         
         if (!(condType instanceof BoolType))
             put(node, new ErrorType("WhileLoop requires bool condition not " + condType + "."));
@@ -324,7 +321,7 @@ public class TypeChecker implements CommandVisitor {
 
     @Override
     public void visit(Return node) {
-        node.argument().accept(this);
+        allPathsReturn.add(node);
         Type retType = typeMap.get(node.argument());
         
         if (!retType.equivalent(currentReturnType()))
@@ -333,6 +330,12 @@ public class TypeChecker implements CommandVisitor {
             put(node, new VoidType());
     }
 
+    @Override
+    public void visit(InlinedCall node) {
+        put(node, new VoidType());
+        currentFunction = enclosingFunctions.pop();
+    }
+
     @Override
     public void visit(ast.Error node) {
         put(node, new ErrorType(node.message()));
@@ -10,6 +10,7 @@ public class TypeList extends Type implements Iterable<Type> {
 	
 	public TypeList()
 	{
+		super(Kind.LIST);
 		list = new ArrayList<Type>();
 	}
 	
@@ -4,6 +4,7 @@ public class VoidType extends Type {
 	
 	public VoidType()
 	{
+		super(Kind.VOID);
 	}
 	
 	@Override